@@ -0,0 +1,109 @@
+package net.genealogy.wikibase;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the CPU work of {@link DatabaseInsert#createItem(String)} that does not need a database: rewriting the JSON
+ * with the item id and statement GUIDs, hashing the text and formatting the timestamp. The <code>legacy</code>
+ * benchmarks show the former implementation with a <code>JSONObject</code> round trip for comparison.
+ * <p>
+ * Run with <code>java -jar target/benchmarks.jar ItemPreparation -prof gc</code> to see the allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ItemPreparationBenchmark {
+
+    private static final String ITEM_ID = "Q4711";
+
+    /**
+     * See {@link SyntheticItems}.
+     */
+    @Param({"small", "medium", "claimHeavy"})
+    public String shape;
+
+    private final ItemSerializer itemSerializer = new ItemSerializer();
+    private final MediaWikiTimestamp timestamps = new MediaWikiTimestamp();
+    private String json;
+    private byte[] data;
+
+    @Setup
+    public void setUp() {
+        json = SyntheticItems.create(shape, 1);
+        data = itemSerializer.serialize(json, ITEM_ID).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String serialize() {
+        return itemSerializer.serialize(json, ITEM_ID);
+    }
+
+    /**
+     * Everything {@link DatabaseInsert#createItem(String)} computes before the first insert.
+     */
+    @Benchmark
+    public String prepareItem() {
+        final String timestamp = timestamps.now();
+        final byte[] bytes = itemSerializer.serialize(json, ITEM_ID).getBytes(StandardCharsets.UTF_8);
+        return timestamp + DatabaseInsert.sha1base36(bytes) + bytes.length;
+    }
+
+    @Benchmark
+    public String sha1base36() {
+        return DatabaseInsert.sha1base36(data);
+    }
+
+    @Benchmark
+    public String timestamp() {
+        return timestamps.now();
+    }
+
+    @Benchmark
+    public String legacySerialize() {
+        final JSONObject item = new JSONObject(json);
+        item.put("id", ITEM_ID);
+        if (item.has("claims")) {
+            final JSONObject claims = item.getJSONObject("claims");
+            for (String claim : claims.keySet()) {
+                final JSONArray list = claims.getJSONArray(claim);
+                for (int i = 0; i < list.length(); i++) {
+                    list.getJSONObject(i).put("id", ITEM_ID + "$" + UUID.randomUUID().toString());
+                }
+            }
+        }
+        return item.toString();
+    }
+
+    @Benchmark
+    public String legacySha1base36() {
+        return new BigInteger(DigestUtils.sha1Hex(data), 16).toString(36);
+    }
+
+    @Benchmark
+    public String legacyTimestamp() {
+        return LocalDateTime.now().format(DateTimeFormatter.ISO_DATE_TIME).replaceAll("[T:-]", "").substring(0, 14);
+    }
+}
@@ -0,0 +1,46 @@
+package net.genealogy.wikibase;
+
+/**
+ * A Bloom filter for 64 bit hashes. With 10 bits per expected entry and 7 probes about 1% of the unknown keys are
+ * reported as possibly contained. The probes are derived from the key by double hashing, so the keys should be good
+ * hashes already. The filter is not thread-safe.
+ */
+class BloomFilter {
+
+    private static final int BITS_PER_ENTRY = 10;
+    private static final int PROBES = 7;
+    private final long[] bits;
+    private final long numberOfBits;
+
+    BloomFilter(int expectedEntries) {
+        final long words = Math.max(1, ((long) expectedEntries * BITS_PER_ENTRY + 63) / 64);
+        bits = new long[(int) Math.min(words, Integer.MAX_VALUE - 8)];
+        numberOfBits = bits.length * 64L;
+    }
+
+    void add(long key) {
+        final long h2 = (key >>> 32) | 1;
+        long h = key;
+        for (int i = 0; i < PROBES; i++) {
+            final long bit = (h & Long.MAX_VALUE) % numberOfBits;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+            h += h2;
+        }
+    }
+
+    /**
+     * @return <code>false</code> if the key has certainly not been added
+     */
+    boolean mightContain(long key) {
+        final long h2 = (key >>> 32) | 1;
+        long h = key;
+        for (int i = 0; i < PROBES; i++) {
+            final long bit = (h & Long.MAX_VALUE) % numberOfBits;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+            h += h2;
+        }
+        return true;
+    }
+}
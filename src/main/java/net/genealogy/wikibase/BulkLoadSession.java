@@ -0,0 +1,227 @@
+package net.genealogy.wikibase;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Drops the non-unique secondary indexes of the tables written by {@link DatabaseInsert} for the time of a large load
+ * and rebuilds them afterwards with one <code>ALTER TABLE</code> per table, which InnoDB does in a sorted pass. The
+ * connection of the session also runs with <code>unique_checks</code> and <code>foreign_key_checks</code> switched
+ * off. Unique indexes are kept, but with <code>unique_checks=0</code> InnoDB may skip checking their secondary
+ * entries, so duplicate rows are not reliably rejected during the session. The loader has to make sure its rows are
+ * unique, e.g. with preselected ids.
+ * <p>
+ * The definitions of the dropped indexes are saved to a file before anything is dropped. If the load fails, the
+ * indexes are rebuilt on {@link #close()}. If the process dies, the next session or {@link #restore(Connection, File)}
+ * rebuilds them from the file.
+ */
+public class BulkLoadSession implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkLoadSession.class);
+    /**
+     * The tables that get rows for every new item.
+     */
+    static final String[] TABLES = {"text", "page", "revision", "comment", "revision_comment_temp",
+            "revision_actor_temp", "content", "slots", "recentchanges", "wbt_text", "wbt_text_in_lang",
+            "wbt_term_in_lang", "wbt_item_terms", "wb_items_per_site"};
+
+    private final Connection connection;
+    private final File savedIndexes;
+    private final String[] tables;
+    /**
+     * The index definitions by table, e.g. <code>ADD INDEX `rev_timestamp` (`rev_timestamp`)</code>.
+     */
+    private Map<String, List<String>> dropped = new LinkedHashMap<>();
+    private int uniqueChecks;
+    private int foreignKeyChecks;
+    private boolean active = false;
+
+    /**
+     * @param connection   the connection of the writer
+     * @param savedIndexes the file where the definitions of the dropped indexes are kept during the load
+     * @param tables       the tables whose indexes are dropped
+     */
+    public BulkLoadSession(Connection connection, File savedIndexes, String... tables) {
+        this.connection = connection;
+        this.savedIndexes = savedIndexes;
+        this.tables = tables;
+    }
+
+    /**
+     * Drop the indexes and relax the checks of the connection.
+     */
+    public void start() throws SQLException, IOException {
+        if (active) {
+            throw new IllegalStateException("The bulk load session has already been started");
+        }
+        // Indexes of a load that did not finish are still missing, their definitions must not get lost
+        if (savedIndexes.exists()) {
+            dropped = read(savedIndexes);
+            log.warn("Indexes of an unfinished bulk load are missing: {}", dropped);
+        }
+
+        final Statement stmt = connection.createStatement();
+        final ResultSet rs = stmt.executeQuery("SELECT @@SESSION.unique_checks, @@SESSION.foreign_key_checks");
+        rs.next();
+        uniqueChecks = rs.getInt(1);
+        foreignKeyChecks = rs.getInt(2);
+        rs.close();
+
+        final Map<String, List<String>> dropNow = new LinkedHashMap<>();
+        for (String table : tables) {
+            final Map<String, String> indexes = secondaryIndexes(stmt, table);
+            if (!indexes.isEmpty()) {
+                dropNow.put(table, new ArrayList<>(indexes.keySet()));
+                final List<String> definitions = dropped.computeIfAbsent(table, t -> new ArrayList<>());
+                for (String definition : indexes.values()) {
+                    if (!definitions.contains(definition)) {
+                        definitions.add(definition);
+                    }
+                }
+            }
+        }
+        write(savedIndexes, dropped);
+        active = true;
+
+        stmt.execute("SET SESSION unique_checks=0, foreign_key_checks=0");
+        for (Map.Entry<String, List<String>> entry : dropNow.entrySet()) {
+            final StringBuilder sql = new StringBuilder("ALTER TABLE ").append(entry.getKey());
+            for (int i = 0; i < entry.getValue().size(); i++) {
+                sql.append(i == 0 ? " " : ", ").append("DROP INDEX `").append(entry.getValue().get(i)).append('`');
+            }
+            stmt.execute(sql.toString());
+            log.info("Dropped the indexes {} of {}.", entry.getValue(), entry.getKey());
+        }
+        stmt.close();
+    }
+
+    /**
+     * Rebuild the indexes and restore the checks. Call after the last commit of the load.
+     */
+    public void finish() throws SQLException, IOException {
+        if (!active) {
+            return;
+        }
+        active = false;
+        final Statement stmt = connection.createStatement();
+        stmt.execute("SET SESSION unique_checks=" + uniqueChecks + ", foreign_key_checks=" + foreignKeyChecks);
+        stmt.close();
+        rebuild(connection, dropped);
+        Files.deleteIfExists(savedIndexes.toPath());
+    }
+
+    /**
+     * Roll back the open transaction and rebuild the indexes if the load did not finish. Without the rollback the
+     * <code>ALTER TABLE</code> would commit the rows of the failed transaction.
+     */
+    @Override
+    public void close() throws SQLException, IOException {
+        if (active) {
+            log.warn("The bulk load did not finish, rebuilding the indexes.");
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+            }
+            finish();
+        }
+    }
+
+    /**
+     * Rebuild the indexes of a bulk load that was interrupted, e.g. by a crash. Nothing happens if there is no saved
+     * file.
+     */
+    public static void restore(Connection connection, File savedIndexes) throws SQLException, IOException {
+        if (savedIndexes.exists()) {
+            rebuild(connection, read(savedIndexes));
+            Files.delete(savedIndexes.toPath());
+        }
+    }
+
+    /**
+     * Add all indexes of a table with one statement, indexes that exist already are skipped.
+     */
+    private static void rebuild(Connection connection, Map<String, List<String>> indexes) throws SQLException {
+        final Statement stmt = connection.createStatement();
+        for (Map.Entry<String, List<String>> entry : indexes.entrySet()) {
+            final Map<String, String> existing = secondaryIndexes(stmt, entry.getKey());
+            final List<String> missing = new ArrayList<>(entry.getValue());
+            missing.removeAll(existing.values());
+            if (missing.isEmpty()) {
+                continue;
+            }
+            final long start = System.currentTimeMillis();
+            stmt.execute("ALTER TABLE " + entry.getKey() + " " + String.join(", ", missing));
+            log.info("Rebuilt {} indexes of {} in {} ms.", missing.size(), entry.getKey(), System.currentTimeMillis() - start);
+        }
+        stmt.close();
+    }
+
+    /**
+     * @return the definitions of the non-unique secondary indexes by index name
+     */
+    private static Map<String, String> secondaryIndexes(Statement stmt, String table) throws SQLException {
+        final Map<String, StringBuilder> columns = new LinkedHashMap<>();
+        final Map<String, String> types = new LinkedHashMap<>();
+        final ResultSet rs = stmt.executeQuery("SHOW INDEX FROM " + table);
+        while (rs.next()) {
+            final String name = rs.getString("Key_name");
+            if ("PRIMARY".equals(name) || rs.getInt("Non_unique") == 0) {
+                continue;
+            }
+            final StringBuilder column = columns.computeIfAbsent(name, n -> new StringBuilder());
+            column.append(column.length() == 0 ? "" : ",").append('`').append(rs.getString("Column_name")).append('`');
+            final String subPart = rs.getString("Sub_part");
+            if (subPart != null) {
+                column.append('(').append(subPart).append(')');
+            }
+            types.put(name, rs.getString("Index_type"));
+        }
+        rs.close();
+
+        final Map<String, String> definitions = new LinkedHashMap<>();
+        for (Map.Entry<String, StringBuilder> entry : columns.entrySet()) {
+            final String kind = "FULLTEXT".equals(types.get(entry.getKey())) ? "ADD FULLTEXT INDEX `" : "ADD INDEX `";
+            definitions.put(entry.getKey(), kind + entry.getKey() + "` (" + entry.getValue() + ")");
+        }
+        return definitions;
+    }
+
+    /**
+     * One line per index: the table, a tab and the definition.
+     */
+    private static Map<String, List<String>> read(File file) throws IOException {
+        final Map<String, List<String>> indexes = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            final int tab = line.indexOf('\t');
+            if (tab > 0) {
+                indexes.computeIfAbsent(line.substring(0, tab), t -> new ArrayList<>()).add(line.substring(tab + 1));
+            }
+        }
+        return indexes;
+    }
+
+    private static void write(File file, Map<String, List<String>> indexes) throws IOException {
+        final List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, List<String>> entry : indexes.entrySet()) {
+            for (String definition : entry.getValue()) {
+                lines.add(entry.getKey() + "\t" + definition);
+            }
+        }
+        final File temp = new File(file.getPath() + ".tmp");
+        Files.write(temp.toPath(), lines, StandardCharsets.UTF_8);
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
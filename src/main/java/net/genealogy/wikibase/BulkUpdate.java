@@ -0,0 +1,74 @@
+package net.genealogy.wikibase;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adds a new revision to existing items. The input has the format of a Wikidata JSON dump (<code>.json</code>,
+ * <code>.json.gz</code> or <code>.json.bz2</code>) or one item per line, and every item needs its <code>id</code>.
+ * <p>
+ * Usage: <code>BulkUpdate items.json jdbc-url user password</code>
+ */
+public class BulkUpdate {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkUpdate.class);
+    private static final int ITEMS_PER_TRANSACTION = 10000;
+    private static final int BATCH_SIZE = 1000;
+    /**
+     * Keys of the dump format that are not part of the JSON stored by Wikibase. The id is needed to find the item.
+     */
+    private static final String[] DUMP_ONLY_KEYS = {"lastrevid", "modified", "pageid", "ns", "title"};
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 4) {
+            System.err.println("Usage: BulkUpdate <items file> <jdbc url> <user> <password>");
+            System.exit(1);
+        }
+
+        final DatabaseInsert di = new DatabaseInsert(DriverManager.getConnection(args[1], args[2], args[3]));
+        final IdJournal idJournal = new IdJournal(new File(args[0] + ".ids"));
+        di.setIdJournal(idJournal);
+        final WriteStatistics statistics = di.getStatistics();
+        statistics.startReporting(1, TimeUnit.MINUTES);
+        final ItemSerializer serializer = new ItemSerializer();
+        final List<String> items = new ArrayList<>(BATCH_SIZE);
+        int read = 0;
+        int edited = 0;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(DumpReader.open(new File(args[0])), StandardCharsets.UTF_8), 1 << 16)) {
+            di.startTransaction();
+            di.setBatchSize(BATCH_SIZE);
+            String line = in.readLine();
+            while (line != null) {
+                final String json = DumpReader.entity(line);
+                if (json != null) {
+                    items.add(serializer.removeKeys(json, DUMP_ONLY_KEYS));
+                    read++;
+                }
+                if (items.size() == BATCH_SIZE) {
+                    edited += di.updateItems(items);
+                    items.clear();
+                    if (read % ITEMS_PER_TRANSACTION == 0) {
+                        di.commit();
+                    }
+                }
+                line = in.readLine();
+            }
+            edited += di.updateItems(items);
+            di.commit();
+        }
+        di.destroy();
+        idJournal.close();
+        statistics.close();
+        log.info("Edited {} of {} items.", edited, read);
+        System.exit(0);
+    }
+}
@@ -0,0 +1,28 @@
+package net.genealogy.wikibase;
+
+import lombok.Value;
+
+/**
+ * The state of an import after a commit: the position in the input and the last ids that have been used.
+ */
+@Value
+class Checkpoint {
+
+    /**
+     * Byte offset of the first line that has not been imported.
+     */
+    long offset;
+    long items;
+    int lastQNumber;
+    long lastTextId;
+    long lastPageId;
+    long lastCommentId;
+    long lastContentId;
+
+    /**
+     * @return an allocator that continues after the ids of this checkpoint
+     */
+    SequentialIdAllocator createIdAllocator() {
+        return new SequentialIdAllocator(lastQNumber, lastTextId, lastPageId, lastCommentId, lastContentId);
+    }
+}
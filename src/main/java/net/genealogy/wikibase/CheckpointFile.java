@@ -0,0 +1,118 @@
+package net.genealogy.wikibase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Properties;
+
+/**
+ * Stores the {@link Checkpoint} of an import in a properties file.
+ * <p>
+ * The file cannot be written in the same transaction as the items. So the next checkpoint is written as
+ * <em>pending</em> before the commit and marked as committed afterwards. If the process dies in between,
+ * {@link #read(Connection)} checks in the database whether the last item of the pending checkpoint exists.
+ */
+class CheckpointFile {
+
+    private static final String PENDING = "pending.";
+    private final File file;
+    private Checkpoint committed;
+
+    CheckpointFile(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return the last committed checkpoint or <code>null</code> if the import has not committed anything yet
+     */
+    Checkpoint read(Connection connection) throws IOException, SQLException {
+        if (!file.exists()) {
+            return null;
+        }
+        final Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            properties.load(in);
+        }
+        committed = get(properties, "");
+        final Checkpoint pending = get(properties, PENDING);
+        if (pending != null && itemExists(connection, pending.getLastQNumber())) {
+            committed = pending;
+            write(committed, null);
+        }
+        return committed;
+    }
+
+    /**
+     * Call before the commit of the items up to the checkpoint.
+     */
+    void prepare(Checkpoint next) throws IOException {
+        write(committed, next);
+    }
+
+    /**
+     * Call after the commit of the items up to the checkpoint.
+     */
+    void commit(Checkpoint next) throws IOException {
+        write(next, null);
+        committed = next;
+    }
+
+    private static boolean itemExists(Connection connection, int qNumber) throws SQLException {
+        final PreparedStatement pstmt = connection.prepareStatement("SELECT 1 FROM page WHERE page_namespace=120 AND page_title=?");
+        pstmt.setString(1, "Q" + qNumber);
+        final ResultSet rs = pstmt.executeQuery();
+        final boolean exists = rs.next();
+        rs.close();
+        pstmt.close();
+        return exists;
+    }
+
+    /**
+     * Replace the file atomically, so a crash never leaves a partly written checkpoint.
+     */
+    private void write(Checkpoint checkpoint, Checkpoint pending) throws IOException {
+        final Properties properties = new Properties();
+        put(properties, "", checkpoint);
+        put(properties, PENDING, pending);
+        final Path temp = new File(file.getPath() + ".tmp").toPath();
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, null);
+        }
+        Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void put(Properties properties, String prefix, Checkpoint checkpoint) {
+        if (checkpoint == null) {
+            return;
+        }
+        properties.setProperty(prefix + "offset", Long.toString(checkpoint.getOffset()));
+        properties.setProperty(prefix + "items", Long.toString(checkpoint.getItems()));
+        properties.setProperty(prefix + "lastQNumber", Integer.toString(checkpoint.getLastQNumber()));
+        properties.setProperty(prefix + "textId", Long.toString(checkpoint.getLastTextId()));
+        properties.setProperty(prefix + "pageId", Long.toString(checkpoint.getLastPageId()));
+        properties.setProperty(prefix + "commentId", Long.toString(checkpoint.getLastCommentId()));
+        properties.setProperty(prefix + "contentId", Long.toString(checkpoint.getLastContentId()));
+    }
+
+    private static Checkpoint get(Properties properties, String prefix) {
+        if (properties.getProperty(prefix + "offset") == null) {
+            return null;
+        }
+        return new Checkpoint(
+                Long.parseLong(properties.getProperty(prefix + "offset")),
+                Long.parseLong(properties.getProperty(prefix + "items")),
+                Integer.parseInt(properties.getProperty(prefix + "lastQNumber")),
+                Long.parseLong(properties.getProperty(prefix + "textId")),
+                Long.parseLong(properties.getProperty(prefix + "pageId")),
+                Long.parseLong(properties.getProperty(prefix + "commentId")),
+                Long.parseLong(properties.getProperty(prefix + "contentId")));
+    }
+}
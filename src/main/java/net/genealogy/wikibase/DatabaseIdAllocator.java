@@ -0,0 +1,214 @@
+package net.genealogy.wikibase;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+
+/**
+ * Reserves id blocks in the database, so a load can run while the wiki is being edited.
+ * <p>
+ * Q numbers are taken from <code>wb_id_counters</code> with a single atomic statement, like Wikibase does. The row ids
+ * of <code>text</code>, <code>page</code>, <code>comment</code> and <code>content</code> are reserved by inserting a
+ * placeholder row with the last id of the block, which moves the <code>AUTO_INCREMENT</code> counter of the table
+ * behind the block. A locking read then makes sure that no row of another writer is in the block, and the placeholder
+ * is deleted again. Every reservation is a short transaction on the connection of this allocator, so the connection
+ * must not be used by a writer. The revision id of an item is its text id, so <code>revision</code> is reserved
+ * together with <code>text</code>.
+ * <p>
+ * Property numbers are taken from <code>wb_id_counters</code> one at a time in the same way.
+ * <p>
+ * The ids of the term store are not reserved, so a writer with this allocator cannot have a {@link TermStore}.
+ */
+public class DatabaseIdAllocator implements IdBlockAllocator {
+
+    private static final Logger log = LoggerFactory.getLogger(DatabaseIdAllocator.class);
+    /**
+     * The distance between the counter and a new block, for rows that are inserted while the block is reserved.
+     */
+    private static final int GAP = 100;
+    private static final int MAX_ATTEMPTS = 10;
+
+    private static final Table TEXT = new Table("text", "old_id", "INSERT INTO text (old_id, old_text, old_flags) VALUES(?,'','')", 1);
+    private static final Table REVISION = new Table("revision", "rev_id", "INSERT INTO revision VALUES(?,0,0,'',0,'','',0,0,0,0,'',NULL,NULL)", 1);
+    private static final Table PAGE = new Table("page", "page_id", "INSERT INTO page VALUES(?,-1,CONCAT('Id_reservation_',?),'',0,0,0,'',NULL,0,0,NULL,NULL)", 2);
+    private static final Table COMMENT = new Table("comment", "comment_id", "INSERT INTO comment VALUES(?,0,'',NULL)", 1);
+    private static final Table CONTENT = new Table("content", "content_id", "INSERT INTO content VALUES(?,0,'',0,'')", 1);
+
+    private final Connection connection;
+    private int lastQNumber;
+
+    private static class Table {
+        final String name;
+        final String column;
+        /**
+         * Inserts a row whose id is every parameter.
+         */
+        final String placeholder;
+        final int parameters;
+
+        Table(String name, String column, String placeholder, int parameters) {
+            this.name = name;
+            this.column = column;
+            this.placeholder = placeholder;
+            this.parameters = parameters;
+        }
+    }
+
+    /**
+     * @param connection a connection that is used by this allocator only
+     */
+    public DatabaseIdAllocator(Connection connection) {
+        this.connection = connection;
+    }
+
+    @Override
+    public synchronized IdBlock allocate(int size) throws SQLException {
+        final int firstQNumber = reserveQNumbers(size);
+        final long firstTextId = reserveRows(size, TEXT, REVISION);
+        final long firstPageId = reserveRows(size, PAGE);
+        final long firstCommentId = reserveRows(size, COMMENT);
+        final long firstContentId = reserveRows(size, CONTENT);
+        return new IdBlock(firstQNumber, firstTextId, firstPageId, firstCommentId, firstContentId, size);
+    }
+
+    /**
+     * @return the highest Q number that has been handed out
+     */
+    public synchronized int getLastQNumber() {
+        return lastQNumber;
+    }
+
+    /**
+     * Increase the counter by the size of the block. The counter holds the last Q number that is used.
+     *
+     * @return the first Q number of the block
+     */
+    private int reserveQNumbers(int size) throws SQLException {
+        lastQNumber = increment("wikibase-item", size);
+        return lastQNumber - size + 1;
+    }
+
+    /**
+     * Increase the property counter by one. The row is only locked for this statement.
+     */
+    @Override
+    public synchronized int allocatePropertyNumber() throws SQLException {
+        return increment("wikibase-property", 1);
+    }
+
+    /**
+     * @return the new value of the counter
+     */
+    private int increment(String type, int size) throws SQLException {
+        final boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(true);
+        try {
+            final PreparedStatement pstmt = connection.prepareStatement("INSERT INTO wb_id_counters (id_type, id_value) VALUES(?, LAST_INSERT_ID(?))"
+                    + " ON DUPLICATE KEY UPDATE id_value=LAST_INSERT_ID(id_value + ?)");
+            pstmt.setString(1, type);
+            pstmt.setInt(2, size);
+            pstmt.setInt(3, size);
+            pstmt.executeUpdate();
+            pstmt.close();
+
+            final PreparedStatement select = connection.prepareStatement("SELECT LAST_INSERT_ID()");
+            final ResultSet rs = select.executeQuery();
+            rs.next();
+            final int value = rs.getInt(1);
+            rs.close();
+            select.close();
+            return value;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Reserve the same ids in all tables.
+     *
+     * @return the first id of the block
+     */
+    private long reserveRows(int size, Table... tables) throws SQLException {
+        final boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+                long first = 0;
+                for (Table table : tables) {
+                    first = Math.max(first, nextId(table));
+                }
+                first += GAP;
+                final long last = first + size - 1;
+                try {
+                    for (Table table : tables) {
+                        execute(table.placeholder, table.parameters, last);
+                    }
+                    boolean free = true;
+                    for (Table table : tables) {
+                        free &= isFree(table, first, last);
+                        execute("DELETE FROM " + table.name + " WHERE " + table.column + "=?", 1, last);
+                    }
+                    if (free) {
+                        connection.commit();
+                        return first;
+                    }
+                    log.debug("Rows of another writer in {} to {} of {}", first, last, tables[0].name);
+                } catch (SQLIntegrityConstraintViolationException e) {
+                    log.debug("Id {} of {} is used by another writer", last, tables[0].name);
+                }
+                // The counters have been moved behind the block anyway, so the next attempt starts after it
+                connection.rollback();
+            }
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        throw new SQLException("Could not reserve " + size + " ids in " + tables[0].name + " after " + MAX_ATTEMPTS + " attempts");
+    }
+
+    /**
+     * @return the next id of the <code>AUTO_INCREMENT</code> counter, at least the highest id plus one
+     */
+    private long nextId(Table table) throws SQLException {
+        final PreparedStatement pstmt = connection.prepareStatement("SELECT GREATEST(COALESCE(MAX(" + table.column + "), 0) + 1,"
+                + " COALESCE((SELECT AUTO_INCREMENT FROM information_schema.TABLES WHERE TABLE_SCHEMA=DATABASE() AND TABLE_NAME=?), 0))"
+                + " FROM " + table.name);
+        pstmt.setString(1, table.name);
+        final ResultSet rs = pstmt.executeQuery();
+        rs.next();
+        final long id = rs.getLong(1);
+        rs.close();
+        pstmt.close();
+        return id;
+    }
+
+    /**
+     * A locking read, so rows of other transactions that are not committed yet are seen as well.
+     *
+     * @return <code>true</code> if there is no row with an id between first and the placeholder at last
+     */
+    private boolean isFree(Table table, long first, long last) throws SQLException {
+        final PreparedStatement pstmt = connection.prepareStatement("SELECT 1 FROM " + table.name + " WHERE "
+                + table.column + ">=? AND " + table.column + "<? LIMIT 1 FOR UPDATE");
+        pstmt.setLong(1, first);
+        pstmt.setLong(2, last);
+        final ResultSet rs = pstmt.executeQuery();
+        final boolean free = !rs.next();
+        rs.close();
+        pstmt.close();
+        return free;
+    }
+
+    private void execute(String sql, int parameters, long id) throws SQLException {
+        final PreparedStatement pstmt = connection.prepareStatement(sql);
+        for (int i = 1; i <= parameters; i++) {
+            pstmt.setLong(i, id);
+        }
+        pstmt.executeUpdate();
+        pstmt.close();
+    }
+}
@@ -2,18 +2,24 @@ package net.genealogy.wikibase;
 
 
 import org.apache.commons.codec.digest.DigestUtils;
-import org.json.JSONArray;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.sql.*;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Locale;
-import java.util.UUID;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.Deflater;
 
 /**
  * Mit diesem Programm soll versucht werden, ein Item direkt in der Wikibase-Datenbank anzulegen.
@@ -22,6 +28,16 @@ public class DatabaseInsert {
 
     private static final Logger log = LoggerFactory.getLogger(DatabaseInsert.class);
     private final static int ACTOR = 1;
+    private final static int ID_BLOCK_SIZE = 1000;
+    /**
+     * Number of pages looked up with one <code>IN</code> list.
+     */
+    private final static int PAGE_LOOKUP_SIZE = 1000;
+    private final static ThreadLocal<MessageDigest> SHA1 = ThreadLocal.withInitial(DigestUtils::getSha1Digest);
+    /**
+     * MediaWiki reads <code>gzip</code> text with <code>gzinflate</code>, i.e. raw deflate data without a header.
+     */
+    private final static ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
     private final Connection connection;
     private final PrintWriter sqlout;
     /**
@@ -29,6 +45,40 @@ public class DatabaseInsert {
      * database.
      */
     private final boolean preselectIds = true;
+    /**
+     * Number of items collected with <code>addBatch</code> before they are sent to the database. A value of 1 executes
+     * every statement immediately.
+     */
+    private int batchSize = 1;
+    private int pendingItems = 0;
+    /**
+     * Collect the rows as tab-separated data and send them with <code>LOAD DATA LOCAL INFILE</code> instead of
+     * INSERTs.
+     */
+    private boolean loadData = false;
+    private final LoadDataBuffer textRows = new LoadDataBuffer("text");
+    private final LoadDataBuffer pageRows = new LoadDataBuffer("page");
+    private final LoadDataBuffer revisionRows = new LoadDataBuffer("revision");
+    private final LoadDataBuffer commentRows = new LoadDataBuffer("comment");
+    private final LoadDataBuffer revisionCommentRows = new LoadDataBuffer("revision_comment_temp");
+    private final LoadDataBuffer revisionActorRows = new LoadDataBuffer("revision_actor_temp");
+    private final LoadDataBuffer contentRows = new LoadDataBuffer("content");
+    private final LoadDataBuffer slotsRows = new LoadDataBuffer("slots");
+    private final LoadDataBuffer recentChangesRows = new LoadDataBuffer("recentchanges");
+    private final LoadDataBuffer wbtItemTermsRows = new LoadDataBuffer("wbt_item_terms", "(wbit_item_id,wbit_term_in_lang_id)");
+    private final LoadDataBuffer itemsPerSiteRows = new LoadDataBuffer("wb_items_per_site", "(ips_item_id,ips_site_id,ips_site_page)");
+    private final LoadDataBuffer wbtPropertyTermsRows = new LoadDataBuffer("wbt_property_terms", "(wbpt_property_id,wbpt_term_in_lang_id)");
+    private final LoadDataBuffer propertyInfoRows = new LoadDataBuffer("wb_property_info");
+    private final LoadDataBuffer wbTermsRows = new LoadDataBuffer("wb_terms",
+            "(term_entity_id,term_full_entity_id,term_entity_type,term_language,term_type,term_text,term_search_key,term_weight)");
+    /**
+     * Source of the preselected ids. If the allocator is shared with other writers, the coordinator of the load is
+     * responsible for <code>wb_id_counters</code>.
+     */
+    private IdBlockAllocator idAllocator;
+    private final boolean ownsIdCounter;
+    private final int idBlockSize;
+    private int idsLeft = 0;
     private PreparedStatement pstmtInsertText;
     private PreparedStatement pstmtInsertPage;
     private PreparedStatement pstmtInsertRevision;
@@ -41,29 +91,136 @@ public class DatabaseInsert {
     private PreparedStatement pstmtSelectLastItemId;
     private PreparedStatement pstmtSelectItem;
     private PreparedStatement pstmtInsertRecentChanges;
+    private PreparedStatement pstmtInsertEditRecentChanges;
+    private PreparedStatement pstmtUpdatePage;
+    private PreparedStatement pstmtSelectTermByLabel;
+    private PreparedStatement pstmtSelectTermByLabelAndDescription;
+    private PreparedStatement pstmtInsertWbtItemTerms;
+    private PreparedStatement pstmtInsertItemsPerSite;
+    private PreparedStatement pstmtSelectWbtText;
+    private PreparedStatement pstmtSelectWbtTextInLang;
+    private PreparedStatement pstmtSelectWbtTermInLang;
+    private PreparedStatement pstmtSelectItemText;
+    private PreparedStatement pstmtInsertWbtPropertyTerms;
+    private PreparedStatement pstmtInsertPropertyInfo;
+    private PreparedStatement pstmtInsertWbTerms;
+    private PreparedStatement pstmtUpdatePropertyCounter;
     private int lastQNumber = 0;
     private long textId;
     private long pageId;
     private long commentId;
     private long contentId;
     private int contentModelItem;
+    private int contentModelProperty;
+    private final ItemSerializer itemSerializer = new ItemSerializer();
+    private LabelIndex labelIndex;
+    private TermStore termStore;
+    private DuplicateIndex duplicateIndex;
+    private IdJournal idJournal;
+    /**
+     * The ids of the current block up to these are recorded in the journal.
+     */
+    private long journaledQNumber;
+    private long journaledTextId;
+    private long journaledPageId;
+    private long journaledCommentId;
+    private long journaledContentId;
+    /**
+     * The last Q number of the current block if the counter is advanced by whole blocks, i.e. the allocator is shared,
+     * otherwise 0.
+     */
+    private long allocatedQNumber;
+    /**
+     * The number of the last property created by this writer, 0 if there is none.
+     */
+    private int lastPropertyNumber;
+    private final List<IdRanges> unjournaledIds = new ArrayList<>();
+    private TurtleExport turtleExport;
+    /**
+     * The Turtle of the new items that have not been committed yet.
+     */
+    private final List<String> pendingTurtle = new ArrayList<>();
+    /**
+     * The numbers of the new items in the duplicate index that have not been committed yet.
+     */
+    private final List<Integer> uncommittedItems = new ArrayList<>();
+    /**
+     * Add a row to <code>recentchanges</code> for every new item, which the query service updater polls.
+     */
+    private boolean recentChanges = true;
+    /**
+     * Store the JSON in <code>text</code> compressed, with the flags <code>utf-8,gzip</code>.
+     */
+    private boolean compressText = false;
+    private byte[] compressed = new byte[4096];
+    private final Set<Integer> itemTermIds = new HashSet<>();
+    private final MediaWikiTimestamp timestamps = new MediaWikiTimestamp();
+    private WriteStatistics statistics = new WriteStatistics();
+    /**
+     * The table of every statement that is executed with {@link #executeUpdate(PreparedStatement)}.
+     */
+    private final Map<PreparedStatement, String> tables = new IdentityHashMap<>();
 
     public DatabaseInsert(Connection con) throws SQLException, IOException {
+        this(con, null, ID_BLOCK_SIZE);
+    }
+
+    /**
+     * Create a writer that takes its ids from a shared allocator. Such a writer does not update
+     * <code>wb_id_counters</code>.
+     *
+     * @param con         a connection that is used by this writer only
+     * @param allocator   the allocator that hands out ids to all writers of a load
+     * @param idBlockSize number of items reserved with every call of the allocator
+     */
+    public DatabaseInsert(Connection con, IdBlockAllocator allocator, int idBlockSize) throws SQLException, IOException {
         this.connection = con;
+        this.idAllocator = allocator;
+        this.ownsIdCounter = allocator == null;
+        this.idBlockSize = idBlockSize;
         afterPropertiesSet();
         sqlout = new PrintWriter(new FileWriter("/tmp/wikibase.sql"));
     }
 
-    private static String sha1base36(String s) {
-        return new BigInteger(DigestUtils.sha1Hex(s), 16).toString(36);
+    /**
+     * Calculate the SHA-1 of the data in base 36, padded to 31 digits like MediaWiki does.
+     */
+    static String sha1base36(byte[] data) {
+        final byte[] digest = SHA1.get().digest(data);
+
+        // Divide the 160 bit number repeatedly by 36, using five 32 bit words
+        final long[] words = new long[5];
+        for (int i = 0; i < digest.length; i++) {
+            words[i / 4] = (words[i / 4] << 8) | (digest[i] & 0xFF);
+        }
+        final char[] digits = new char[31];
+        for (int d = digits.length - 1; d >= 0; d--) {
+            long remainder = 0;
+            for (int i = 0; i < words.length; i++) {
+                final long value = (remainder << 32) | words[i];
+                words[i] = value / 36;
+                remainder = value % 36;
+            }
+            digits[d] = Character.forDigit((int) remainder, 36);
+        }
+        return new String(digits);
     }
 
 
+
     public void afterPropertiesSet() throws SQLException {
         prepareDatabaseConnection();
     }
 
     public void destroy() throws Exception {
+        flush();
+        if (!pendingTurtle.isEmpty()) {
+            log.warn("{} items of an open transaction are not exported", pendingTurtle.size());
+        }
+        if (!uncommittedItems.isEmpty()) {
+            // The open transaction is rolled back when the connection is closed
+            duplicateIndex.release(uncommittedItems);
+        }
         pstmtInsertText.close();
         pstmtInsertPage.close();
         pstmtInsertRevision.close();
@@ -76,6 +233,24 @@ public class DatabaseInsert {
         pstmtSelectLastItemId.close();
         pstmtSelectItem.close();
         pstmtInsertRecentChanges.close();
+        pstmtInsertEditRecentChanges.close();
+        pstmtUpdatePage.close();
+        pstmtSelectTermByLabel.close();
+        pstmtSelectTermByLabelAndDescription.close();
+        pstmtInsertPropertyInfo.close();
+        pstmtInsertWbTerms.close();
+        pstmtUpdatePropertyCounter.close();
+        if (termStore != null) {
+            pstmtInsertWbtItemTerms.close();
+            pstmtInsertItemsPerSite.close();
+            pstmtInsertWbtPropertyTerms.close();
+            pstmtSelectWbtText.close();
+            pstmtSelectWbtTextInLang.close();
+            pstmtSelectWbtTermInLang.close();
+        }
+        if (duplicateIndex != null) {
+            pstmtSelectItemText.close();
+        }
         connection.close();
         sqlout.close();
     }
@@ -92,13 +267,7 @@ public class DatabaseInsert {
     }
 
     private int findFirstTermByLabelAndDescription(String type, Locale language, String label, String description) throws SQLException {
-        PreparedStatement pstmt = connection.prepareStatement(
-                "SELECT min(substring(a.term_full_entity_id,2)) " +
-                        " FROM wb_terms a, wb_terms b" +
-                        " WHERE a.term_language=? AND a.term_entity_type=? AND a.term_type='label' AND a.term_text=? " +
-                        " AND a.term_entity_id = b.term_entity_id" +
-                        " AND b.term_language=? AND b.term_type='description' AND b.term_text=?");
-
+        final PreparedStatement pstmt = pstmtSelectTermByLabelAndDescription;
         pstmt.setString(1, language.toLanguageTag());
         pstmt.setString(2, type);
         pstmt.setString(3, label);
@@ -107,28 +276,297 @@ public class DatabaseInsert {
         final ResultSet rs = pstmt.executeQuery();
         final int termNumber = rs.next() ? rs.getInt(1) : 0;
         rs.close();
-        pstmt.close();
         return termNumber;
     }
 
     private int findFirstTermByLabel(String type, Locale language, String label) throws SQLException {
-        final PreparedStatement pstmt = connection.prepareStatement("SELECT min(substring(term_full_entity_id,2)) FROM wb_terms WHERE term_language=? AND term_entity_type=? AND term_type='label' AND term_text=?");
+        final PreparedStatement pstmt = pstmtSelectTermByLabel;
         pstmt.setString(1, language.toLanguageTag());
         pstmt.setString(2, type);
         pstmt.setString(3, label);
         final ResultSet rs = pstmt.executeQuery();
         final int termNumber = rs.next() ? rs.getInt(1) : 0;
         rs.close();
-        pstmt.close();
         return termNumber;
     }
 
+    /**
+     * Drop the secondary indexes of the tables of new items until the returned session is finished, see
+     * {@link BulkLoadSession}. Call before the first transaction, the indexes are dropped with DDL statements that
+     * commit implicitly.
+     *
+     * @param savedIndexes the file that keeps the definitions of the dropped indexes until they are rebuilt
+     */
+    public BulkLoadSession startBulkLoad(File savedIndexes) throws SQLException, IOException {
+        final BulkLoadSession session = new BulkLoadSession(connection, savedIndexes, BulkLoadSession.TABLES);
+        session.start();
+        return session;
+    }
+
     void startTransaction() throws SQLException {
         connection.setAutoCommit(false);
     }
 
     void commit() throws SQLException {
+        flush();
+        if (termStore != null) {
+            termStore.flush();
+        }
+        journal();
+        final long start = System.nanoTime();
         connection.commit();
+        statistics.recordCommit(System.nanoTime() - start);
+        committed();
+    }
+
+    /**
+     * Export the items that have been committed and let other writers read them from the database.
+     */
+    private void committed() {
+        if (!pendingTurtle.isEmpty()) {
+            turtleExport.write(pendingTurtle);
+            pendingTurtle.clear();
+        }
+        if (!uncommittedItems.isEmpty()) {
+            duplicateIndex.release(uncommittedItems);
+            uncommittedItems.clear();
+        }
+    }
+
+    /**
+     * Record the statements, commits and items of this writer in statistics that may be shared with other writers.
+     */
+    public void setStatistics(WriteStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    public WriteStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Set the number of items that are written with a single JDBC batch per table. Use together with the connection
+     * property <code>rewriteBatchedStatements=true</code> to let the driver send multi-row INSERTs.
+     *
+     * @param batchSize number of items per batch, 1 disables batching
+     */
+    public void setBatchSize(int batchSize) throws SQLException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        if (batchSize > 1 && !preselectIds) {
+            throw new IllegalStateException("Batching requires preselected ids");
+        }
+        flush();
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Write the rows with <code>LOAD DATA LOCAL INFILE</code>. The rows of all items created until the next
+     * {@link #flush()} are loaded with one statement per table, so this should be combined with a large batch size.
+     */
+    public void setLoadData(boolean loadData) throws SQLException {
+        if (loadData && !preselectIds) {
+            throw new IllegalStateException("LOAD DATA requires preselected ids");
+        }
+        flush();
+        this.loadData = loadData;
+    }
+
+    /**
+     * Send all collected statements to the database and update the item id counter once.
+     */
+    public void flush() throws SQLException {
+        if (pendingItems == 0) {
+            return;
+        }
+        if (loadData) {
+            load(textRows);
+            load(pageRows);
+            load(revisionRows);
+            load(commentRows);
+            load(revisionCommentRows);
+            load(revisionActorRows);
+            load(contentRows);
+            load(slotsRows);
+            load(recentChangesRows);
+            load(wbtItemTermsRows);
+            load(itemsPerSiteRows);
+            load(wbtPropertyTermsRows);
+            load(propertyInfoRows);
+            load(wbTermsRows);
+            executeBatch(pstmtUpdatePage);
+        } else {
+            flushBatches();
+        }
+
+        // Nothing to write if only existing items have been edited
+        if (ownsIdCounter && lastQNumber > 0) {
+            pstmtUpdateWbIdCounters.setInt(1, lastQNumber);
+            executeNow(pstmtUpdateWbIdCounters);
+        }
+        if (ownsIdCounter && lastPropertyNumber > 0) {
+            updatePropertyCounter();
+        }
+        pendingItems = 0;
+        if (connection.getAutoCommit()) {
+            committed();
+        }
+    }
+
+    private void load(LoadDataBuffer rows) throws SQLException {
+        final int bytes = rows.getLength();
+        final long start = System.nanoTime();
+        final int loaded = rows.load(connection);
+        if (loaded > 0) {
+            statistics.recordStatement(rows.getTable(), System.nanoTime() - start, loaded);
+            statistics.recordBytes(rows.getTable(), bytes);
+        }
+    }
+
+    private void flushBatches() throws SQLException {
+        executeBatch(pstmtInsertText);
+        executeBatch(pstmtInsertPage);
+        executeBatch(pstmtInsertRevision);
+        executeBatch(pstmtInsertComment);
+        executeBatch(pstmtInsertRevisionComment);
+        executeBatch(pstmtInsertRevisionActor);
+        executeBatch(pstmtInsertContent);
+        executeBatch(pstmtInsertSlots);
+        executeBatch(pstmtInsertRecentChanges);
+        executeBatch(pstmtInsertEditRecentChanges);
+        executeBatch(pstmtUpdatePage);
+        executeBatch(pstmtInsertPropertyInfo);
+        executeBatch(pstmtInsertWbTerms);
+        if (termStore != null) {
+            executeBatch(pstmtInsertWbtItemTerms);
+            executeBatch(pstmtInsertItemsPerSite);
+            executeBatch(pstmtInsertWbtPropertyTerms);
+        }
+    }
+
+    /**
+     * Write the labels, descriptions and aliases of new items to the normalized term store and their sitelinks to
+     * <code>wb_items_per_site</code>. The store may be shared with other writers.
+     * <p>
+     * The term store preselects its ids from the highest existing ids, so it cannot be combined with a
+     * {@link DatabaseIdAllocator} that lets other processes write at the same time.
+     */
+    public void setTermStore(TermStore termStore) throws SQLException {
+        if (termStore != null && idAllocator instanceof DatabaseIdAllocator) {
+            throw new IllegalStateException("The term store cannot be written while other processes write to the wiki");
+        }
+        if (termStore != null && termStore.usesConnection(connection)) {
+            throw new IllegalArgumentException("The term store needs a connection of its own");
+        }
+        flush();
+        this.termStore = termStore;
+        itemSerializer.setCollectTerms(termStore != null);
+        if (termStore != null) {
+            prepareTermStatements();
+        }
+    }
+
+    private void prepareTermStatements() throws SQLException {
+        pstmtInsertWbtItemTerms = prepare("wbt_item_terms", "INSERT INTO wbt_item_terms (wbit_item_id, wbit_term_in_lang_id) VALUES(?,?)");
+        pstmtInsertItemsPerSite = prepare("wb_items_per_site", "INSERT INTO wb_items_per_site (ips_item_id, ips_site_id, ips_site_page) VALUES(?,?,?)");
+        pstmtInsertWbtPropertyTerms = prepare("wbt_property_terms", "INSERT INTO wbt_property_terms (wbpt_property_id, wbpt_term_in_lang_id) VALUES(?,?)");
+        pstmtSelectWbtText = connection.prepareStatement("SELECT wbx_id FROM wbt_text WHERE wbx_text=?");
+        pstmtSelectWbtTextInLang = connection.prepareStatement("SELECT wbxl_id FROM wbt_text_in_lang WHERE wbxl_text_id=? AND wbxl_language=?");
+        pstmtSelectWbtTermInLang = connection.prepareStatement("SELECT wbtl_id FROM wbt_term_in_lang WHERE wbtl_text_in_lang_id=? AND wbtl_type_id=?");
+    }
+
+    /**
+     * Skip items that exist already. {@link #createItem(String)} then returns the id of the existing item instead.
+     * The stored item is only read if the index reports a possible duplicate. Items that are not committed yet are
+     * compared with their keys in the index instead. The index may be shared with other writers.
+     */
+    public void setDuplicateIndex(DuplicateIndex duplicateIndex) throws SQLException {
+        this.duplicateIndex = duplicateIndex;
+        if (duplicateIndex != null) {
+            prepareDuplicateStatements();
+        }
+    }
+
+    private void prepareDuplicateStatements() throws SQLException {
+        pstmtSelectItemText = connection.prepareStatement("SELECT old_text, old_flags FROM page JOIN revision ON rev_id=page_latest"
+                + " JOIN text ON old_id=rev_text_id WHERE page_namespace=120 AND page_title=?");
+    }
+
+    /**
+     * Record the id ranges of this writer in a journal before every commit, so the load can be undone with
+     * {@link RollbackLoad}. Requires preselected ids and transactions, since rows written in autocommit mode would be
+     * committed before their ids are recorded. The journal may be shared with other writers.
+     */
+    public void setIdJournal(IdJournal idJournal) {
+        if (idJournal != null && !preselectIds) {
+            throw new IllegalStateException("An id journal requires preselected ids");
+        }
+        this.idJournal = idJournal;
+    }
+
+    /**
+     * Write the ids that have been used since the last call to the journal.
+     */
+    private void journal() {
+        if (idJournal == null) {
+            return;
+        }
+        addUnjournaledIds();
+        if (!unjournaledIds.isEmpty()) {
+            idJournal.record(unjournaledIds);
+            unjournaledIds.clear();
+        }
+    }
+
+    /**
+     * Remember the ids of the current block that have been used since they were last recorded.
+     */
+    private void addUnjournaledIds() {
+        final IdRanges ranges = new IdRanges(journaledQNumber + 1, lastQNumber, journaledTextId + 1, textId,
+                journaledPageId + 1, pageId, journaledCommentId + 1, commentId, journaledContentId + 1, contentId,
+                allocatedQNumber);
+        if (!ranges.isEmpty()) {
+            unjournaledIds.add(ranges);
+        }
+        journaledQNumber = lastQNumber;
+        journaledTextId = textId;
+        journaledPageId = pageId;
+        journaledCommentId = commentId;
+        journaledContentId = contentId;
+    }
+
+    /**
+     * Write every new item to the Turtle files of the export as well, once its transaction is committed. The export may
+     * be shared with other writers.
+     */
+    public void setTurtleExport(TurtleExport turtleExport) {
+        this.turtleExport = turtleExport;
+    }
+
+    /**
+     * Leave out the rows in <code>recentchanges</code> for new items, e.g. if the query service is loaded from a
+     * {@link TurtleExport}, so its updater does not fetch every item again. Edits are always recorded.
+     */
+    public void setRecentChanges(boolean recentChanges) {
+        this.recentChanges = recentChanges;
+    }
+
+    /**
+     * Store the text of new revisions compressed. The lengths and the SHA-1 of the revisions are still those of the
+     * uncompressed JSON, as MediaWiki expects.
+     */
+    public void setCompressText(boolean compressText) {
+        this.compressText = compressText;
+    }
+
+    /**
+     * Resolve references by label like <code>"P:instance of"</code> in the claims of new items. The label of every
+     * new item is added to the index.
+     */
+    public void setLabelIndex(LabelIndex labelIndex) {
+        this.labelIndex = labelIndex;
+        itemSerializer.setLabelIndex(labelIndex);
     }
 
     int findPropertyByLabel(Locale language, String label) throws SQLException {
@@ -145,76 +583,87 @@ public class DatabaseInsert {
 
 
     private void prepareDatabaseConnection() throws SQLException {
-
-        if (preselectIds) {
-            pstmtInsertText = connection.prepareStatement("INSERT INTO text VALUES(?,?,'utf-8')");
-            pstmtInsertPage = connection.prepareStatement("INSERT INTO page VALUES(?,120,?,'',0,0,rand(1),?,?,?,?,'wikibase-item',NULL)");
-            pstmtInsertComment = connection.prepareStatement("INSERT INTO comment VALUES(?,?,?,NULL)");
-            pstmtInsertContent = connection.prepareStatement("INSERT INTO content VALUES( ? ,?,?, ?, ?)");
-        } else {
-            pstmtInsertText = connection.prepareStatement("INSERT INTO text VALUES(?,?,'utf-8')", Statement.RETURN_GENERATED_KEYS);
-            pstmtInsertPage = connection.prepareStatement("INSERT INTO page VALUES(?,120,?,'',0,0,rand(1),?,?,?,?,'wikibase-item',NULL)", Statement.RETURN_GENERATED_KEYS);
-            pstmtInsertComment = connection.prepareStatement("INSERT INTO comment VALUES(?,?,?,NULL)", Statement.RETURN_GENERATED_KEYS);
-            pstmtInsertContent = connection.prepareStatement("INSERT INTO content VALUES( ? ,?,?, ?, ?)", Statement.RETURN_GENERATED_KEYS);
+        // Statements are prepared again, so items collected for the old statements have to be written first
+        if (pstmtInsertText != null) {
+            flush();
         }
 
-        pstmtInsertRevisionComment = connection.prepareStatement("INSERT INTO revision_comment_temp VALUES (?,?)");
-        pstmtInsertRevisionActor = connection.prepareStatement("INSERT INTO revision_actor_temp VALUES( ?, ?, ?,  ?)");
-        pstmtInsertRevision = connection.prepareStatement("INSERT INTO revision VALUES(?,?,?,'',0,'',?,0,0,?,0,?,NULL,NULL)");
-        pstmtInsertSlots = connection.prepareStatement("INSERT INTO slots VALUES( ?, 1, ?, ?)");
-        pstmtUpdateWbIdCounters = connection.prepareStatement("UPDATE wb_id_counters SET id_value=? WHERE id_type='wikibase-item'");
+        tables.clear();
+        final int keys = preselectIds ? Statement.NO_GENERATED_KEYS : Statement.RETURN_GENERATED_KEYS;
+        pstmtInsertText = prepare("text", "INSERT INTO text VALUES(?,?,?)", keys);
+        pstmtInsertPage = prepare("page", "INSERT INTO page VALUES(?,?,?,'',0,0,rand(1),?,?,?,?,?,NULL)", keys);
+        pstmtInsertComment = prepare("comment", "INSERT INTO comment VALUES(?,?,?,NULL)", keys);
+        pstmtInsertContent = prepare("content", "INSERT INTO content VALUES( ? ,?,?, ?, ?)", keys);
+
+        pstmtInsertRevisionComment = prepare("revision_comment_temp", "INSERT INTO revision_comment_temp VALUES (?,?)");
+        pstmtInsertRevisionActor = prepare("revision_actor_temp", "INSERT INTO revision_actor_temp VALUES( ?, ?, ?,  ?)");
+        pstmtInsertRevision = prepare("revision", "INSERT INTO revision VALUES(?,?,?,'',0,'',?,0,0,?,?,?,NULL,NULL)");
+        pstmtUpdatePage = prepare("page", "UPDATE page SET page_is_new=0, page_touched=?, page_latest=?, page_len=? WHERE page_id=?");
+        pstmtInsertSlots = prepare("slots", "INSERT INTO slots VALUES( ?, 1, ?, ?)");
+        pstmtUpdateWbIdCounters = prepare("wb_id_counters", "UPDATE wb_id_counters SET id_value=? WHERE id_type='wikibase-item'");
         pstmtSelectLastItemId = connection.prepareStatement("SELECT id_value  AS next_id from wb_id_counters where id_type = 'wikibase-item'");
         pstmtSelectItem = connection.prepareStatement("SELECT * FROM page WHERE page_namespace=120 AND page_title=?");
-        pstmtInsertRecentChanges = connection.prepareStatement("INSERT INTO recentchanges VALUES ( 0,?,0,'',?,120,?,?,0,0,1,?,?,0,1,'mw.new',0,'127.0.0.1',0,?,0,0,NULL,'',''  )");
-
-        if (preselectIds) {
-            ResultSet rs = pstmtSelectLastItemId.executeQuery();
-            if (rs.next()) {
-                lastQNumber = rs.getInt(1);
-            }
-            rs.close();
-
-            // Check if the Q-number is really unused
-            while (itemExists("Q" + (lastQNumber + 1))) {
-                lastQNumber++;
-            }
+        pstmtInsertRecentChanges = prepare("recentchanges", "INSERT INTO recentchanges VALUES ( 0,?,0,'',?,?,?,?,0,0,1,?,?,0,1,'mw.new',0,'127.0.0.1',0,?,0,0,NULL,'',''  )");
+        pstmtInsertEditRecentChanges = prepare("recentchanges", "INSERT INTO recentchanges VALUES ( 0,?,0,'',?,120,?,?,0,0,0,?,?,?,0,'mw.edit',0,'127.0.0.1',?,?,0,0,NULL,'',''  )");
+        pstmtSelectTermByLabel = connection.prepareStatement("SELECT min(substring(term_full_entity_id,2)) FROM wb_terms WHERE term_language=? AND term_entity_type=? AND term_type='label' AND term_text=?");
+        pstmtSelectTermByLabelAndDescription = connection.prepareStatement(
+                "SELECT min(substring(a.term_full_entity_id,2)) " +
+                        " FROM wb_terms a, wb_terms b" +
+                        " WHERE a.term_language=? AND a.term_entity_type=? AND a.term_type='label' AND a.term_text=? " +
+                        " AND a.term_entity_id = b.term_entity_id" +
+                        " AND b.term_language=? AND b.term_type='description' AND b.term_text=?");
+        pstmtInsertPropertyInfo = prepare("wb_property_info", "INSERT INTO wb_property_info VALUES(?,?,?)");
+        pstmtInsertWbTerms = prepare("wb_terms", "INSERT INTO wb_terms (term_entity_id, term_full_entity_id, term_entity_type, term_language,"
+                + " term_type, term_text, term_search_key, term_weight) VALUES(?,?,'property',?,?,?,?,0)");
+        pstmtUpdatePropertyCounter = prepare("wb_id_counters", "INSERT INTO wb_id_counters (id_type, id_value) VALUES('wikibase-property', ?)"
+                + " ON DUPLICATE KEY UPDATE id_value=GREATEST(id_value, VALUES(id_value))");
+        if (termStore != null) {
+            prepareTermStatements();
+        }
+        if (duplicateIndex != null) {
+            prepareDuplicateStatements();
+        }
 
-            final Statement stmt = connection.createStatement();
-            rs = stmt.executeQuery("SELECT max(page_id) FROM page");
-            rs.next();
-            pageId = rs.getLong(1);
-            rs.close();
+        if (preselectIds && ownsIdCounter) {
+            idAllocator = SequentialIdAllocator.fromDatabase(connection);
+            idsLeft = 0;
+        }
 
-            rs = stmt.executeQuery("SELECT max(old_id) FROM text");
-            rs.next();
-            textId = rs.getLong(1);
-            rs.close();
+        contentModelItem = selectContentModel("wikibase-item");
+        contentModelProperty = selectContentModel("wikibase-property");
+    }
 
-            rs = stmt.executeQuery("SELECT max(comment_id) FROM comment");
-            rs.next();
-            commentId = rs.getLong(1);
+    /**
+     * @return the id of a content model, which is created if necessary
+     */
+    private int selectContentModel(String name) throws SQLException {
+        final PreparedStatement select = connection.prepareStatement("SELECT model_id FROM content_models WHERE model_name=?");
+        select.setString(1, name);
+        ResultSet rs = select.executeQuery();
+        if (!rs.next()) {
             rs.close();
-
-            rs = stmt.executeQuery("SELECT max(content_id) FROM content");
+            final PreparedStatement insert = connection.prepareStatement("INSERT INTO content_models (model_name ) VALUES(?)");
+            insert.setString(1, name);
+            insert.execute();
+            insert.close();
+            rs = select.executeQuery();
             rs.next();
-            contentId = rs.getLong(1);
-            rs.close();
-
-            stmt.close();
+            log.debug("Created content model for {} with id {}", name, rs.getInt(1));
         }
+        final int id = rs.getInt(1);
+        rs.close();
+        select.close();
+        return id;
+    }
 
-        ResultSet rs = connection.createStatement().executeQuery("SELECT model_id FROM content_models WHERE model_name='wikibase-item'");
-        if( rs.next()) {
-            contentModelItem = rs.getInt(1);
-        } else {
-            rs.close();
-            connection.createStatement().execute("INSERT INTO content_models (model_name ) VALUES('wikibase-item')");
-            rs = connection.createStatement().executeQuery("SELECT model_id FROM content_models WHERE model_name='wikibase-item'");
-            rs.next();
-            contentModelItem = rs.getInt(1);
-            log.debug("Created content model for wikibase-item with id {}", contentModelItem);
-        }
+    private PreparedStatement prepare(String table, String sql) throws SQLException {
+        return prepare(table, sql, Statement.NO_GENERATED_KEYS);
+    }
 
+    private PreparedStatement prepare(String table, String sql, int autoGeneratedKeys) throws SQLException {
+        final PreparedStatement pstmt = connection.prepareStatement(sql, autoGeneratedKeys);
+        tables.put(pstmt, table);
+        return pstmt;
     }
 
     /**
@@ -234,11 +683,21 @@ public class DatabaseInsert {
 
     public String createItem(String jsonString) throws SQLException {
 
-        final JSONObject json = new JSONObject(jsonString);
+        final long[] fingerprint = duplicateIndex != null ? duplicateIndex.keys(jsonString) : null;
+        if (fingerprint != null) {
+            final String existing = findDuplicate(fingerprint);
+            if (existing != null) {
+                return existing;
+            }
+        }
 
-        final String timestamp = LocalDateTime.now().format(DateTimeFormatter.ISO_DATE_TIME).replaceAll("[T:-]", "").substring(0, 14);
+        final String timestamp = timestamps.now();
 
         if (preselectIds) {
+            if (idsLeft == 0) {
+                useIdBlock(idAllocator.allocate(idBlockSize));
+            }
+            idsLeft--;
             lastQNumber++;
 
         } else {
@@ -251,135 +710,593 @@ public class DatabaseInsert {
 
         final String itemId = "Q" + lastQNumber;
 
-        // Does the specified item already have an ID?
-        if (!json.has("id")) {
-            json.put("id", itemId);
-
-            // All statements also need this ID
-            if( json.has("claims")) {
-                final JSONObject claims = json.getJSONObject("claims");
-                for (String claim : claims.keySet()) {
-                    final JSONArray list = claims.getJSONArray(claim);
-                    for (int i = 0; i < list.length(); i++) {
-                        list.getJSONObject(i).put("id", itemId + "$" + UUID.randomUUID().toString());
-                    }
-                }
-            }
+        // The id is added to the item and all its statements unless the item already has one
+        final String json = itemSerializer.serialize(jsonString, itemId);
+        final byte[] data = json.getBytes(StandardCharsets.UTF_8);
+        final String sha1 = sha1base36(data);
+
+        textId = insertText(preselectIds ? textId + 1 : 0, data);
+        pageId = insertPage(preselectIds ? pageId + 1 : 0, 120, itemId, "wikibase-item", timestamp, textId, data.length);
+        insertRevision(textId, pageId, timestamp, data.length, 0, sha1);
+
+        final String comment = "/* wbeditentity-create:2|de */ " + itemId;
+        commentId = insertComment(preselectIds ? commentId + 1 : 0, comment);
+
+        insertRevisionComment(textId, commentId);
+        insertRevisionActor(textId, timestamp, pageId);
+        contentId = insertContent(preselectIds ? contentId + 1 : 0, data.length, sha1, contentModelItem, "tt:" + textId);
+        insertSlots(textId, contentId);
+        insertRecentChanges(timestamp, 120, itemId, commentId, textId, data.length);
+        if (turtleExport != null) {
+            pendingTurtle.add(turtleExport.render(itemId, json, textId, timestamp));
+        }
+
+        if (termStore != null) {
+            insertTerms(lastQNumber, pstmtInsertWbtItemTerms, wbtItemTermsRows);
+        }
+
+        if (labelIndex != null && itemSerializer.getLabel() != null) {
+            labelIndex.put('Q', itemSerializer.getLabel(), lastQNumber);
+        }
+        if (fingerprint != null) {
+            duplicateIndex.putUncommitted(fingerprint, lastQNumber);
+            uncommittedItems.add(lastQNumber);
+        }
+        statistics.recordItem(data.length);
+
+        if (batchSize > 1 || loadData) {
+            // The id counter is written once per batch
+            addPendingItem();
+        } else if (ownsIdCounter) {
+            pstmtUpdateWbIdCounters.setInt(1, lastQNumber);
+            executeUpdate(pstmtUpdateWbIdCounters);
+        }
+        if (pendingItems == 0 && connection.getAutoCommit()) {
+            committed();
+        }
+
+        return itemId;
+    }
+
+    /**
+     * @return the id of an existing item with the same fingerprint or <code>null</code>
+     */
+    private String findDuplicate(long[] fingerprint) throws SQLException {
+        final int candidate = duplicateIndex.find(fingerprint);
+        if (candidate == 0) {
+            return null;
+        }
+        final String itemId = "Q" + candidate;
+        // This connection cannot read the items that other writers have not committed yet
+        final long[] uncommitted = duplicateIndex.getUncommittedKeys(candidate);
+        if (uncommitted != null) {
+            return duplicateIndex.matches(fingerprint, uncommitted) ? itemId : null;
         }
+        pstmtSelectItemText.setString(1, itemId);
+        final ResultSet rs = pstmtSelectItemText.executeQuery();
+        final String json = rs.next() ? DuplicateIndex.decode(rs.getBytes(1), rs.getString(2)) : null;
+        rs.close();
+        return duplicateIndex.matches(fingerprint, json) ? itemId : null;
+    }
 
-        final String data = json.toString();
-        pstmtInsertText.setString(2, data);
+    /**
+     * Create a property with the same rows as an item: a page in namespace 122 with the content model
+     * <code>wikibase-property</code>, its datatype in <code>wb_property_info</code> and its terms in
+     * <code>wb_terms</code>, from which {@link #findPropertyByLabel} and {@link LabelIndex} read, and in the term store
+     * if one is set. The rows are batched and committed like those of items. The number is handed out by the id
+     * allocator, a {@link DatabaseIdAllocator} takes it from <code>wb_id_counters</code> in a short transaction of its
+     * own, so the counter is not locked until the commit. The pages are covered by the id journal, from which
+     * {@link RollbackLoad} finds the properties again.
+     * <p>
+     * A property uses the row ids of an item in the current id block, so every property leaves one Q number of the
+     * block unused.
+     *
+     * @param jsonString the JSON of the property, which needs a <code>datatype</code>
+     * @return the id of the new property
+     */
+    public String createProperty(String jsonString) throws SQLException {
+        final String datatype = itemSerializer.topLevelString(jsonString, "datatype");
+        if (datatype == null) {
+            throw new IllegalArgumentException("A property needs a datatype");
+        }
+        final String timestamp = timestamps.now();
 
         if (preselectIds) {
-            textId++;
-            pstmtInsertText.setLong(1, textId);
-            executeUpdate(pstmtInsertText);
-        } else {
-            pstmtInsertText.setLong(1, 0);
-            executeUpdate(pstmtInsertText);
-            final ResultSet rs = pstmtInsertText.getGeneratedKeys();
-            rs.next();
-            textId = rs.getLong(1);
-            rs.close();
+            if (idsLeft == 0) {
+                useIdBlock(idAllocator.allocate(idBlockSize));
+            }
+            // The Q number of the block is left unused
+            idsLeft--;
         }
+        final int number = idAllocator.allocatePropertyNumber();
+        lastPropertyNumber = number;
+        final String propertyId = "P" + number;
 
-        pstmtInsertPage.setString(2, itemId);
-        pstmtInsertPage.setString(3, timestamp);
-        pstmtInsertPage.setString(4, timestamp);
-        pstmtInsertPage.setLong(5, textId);
-        pstmtInsertPage.setInt(6, data.length());
+        final String json = itemSerializer.serializeProperty(jsonString, propertyId);
+        final byte[] data = json.getBytes(StandardCharsets.UTF_8);
+        final String sha1 = sha1base36(data);
+
+        textId = insertText(preselectIds ? textId + 1 : 0, data);
+        pageId = insertPage(preselectIds ? pageId + 1 : 0, 122, propertyId, "wikibase-property", timestamp, textId, data.length);
+        insertRevision(textId, pageId, timestamp, data.length, 0, sha1);
+
+        final String comment = "/* wbeditentity-create:2|de */ " + propertyId;
+        commentId = insertComment(preselectIds ? commentId + 1 : 0, comment);
+
+        insertRevisionComment(textId, commentId);
+        insertRevisionActor(textId, timestamp, pageId);
+        contentId = insertContent(preselectIds ? contentId + 1 : 0, data.length, sha1, contentModelProperty, "tt:" + textId);
+        insertSlots(textId, contentId);
+        insertRecentChanges(timestamp, 122, propertyId, commentId, textId, data.length);
+        insertPropertyInfo(number, datatype);
+        insertWbTerms(number, propertyId);
+        if (termStore != null) {
+            insertTerms(number, pstmtInsertWbtPropertyTerms, wbtPropertyTermsRows);
+        }
+
+        if (labelIndex != null && itemSerializer.getLabel() != null) {
+            labelIndex.put('P', itemSerializer.getLabel(), number);
+        }
+        statistics.recordItem(data.length);
+        if (batchSize > 1 || loadData) {
+            addPendingItem();
+        } else if (ownsIdCounter) {
+            updatePropertyCounter();
+        }
+        return propertyId;
+    }
+
+    /**
+     * Write the last property number of this writer to the counter, unless it is higher already.
+     */
+    private void updatePropertyCounter() throws SQLException {
+        pstmtUpdatePropertyCounter.setInt(1, lastPropertyNumber);
+        executeNow(pstmtUpdatePropertyCounter);
+    }
+
+    private void insertPropertyInfo(int number, String datatype) throws SQLException {
+        final String info = "{\"type\":\"" + datatype + "\"}";
+        if (loadData) {
+            propertyInfoRows.add(number).add(datatype).add(info).endRow();
+            return;
+        }
+        pstmtInsertPropertyInfo.setInt(1, number);
+        pstmtInsertPropertyInfo.setString(2, datatype);
+        pstmtInsertPropertyInfo.setString(3, info);
+        executeUpdate(pstmtInsertPropertyInfo);
+    }
+
+    /**
+     * Write the terms of a property to <code>wb_terms</code>. The search key is the trimmed text in lower case.
+     */
+    private void insertWbTerms(int number, String propertyId) throws SQLException {
+        final List<String> terms = itemSerializer.getTerms();
+        for (int i = 0; i < terms.size(); i += 3) {
+            final String text = terms.get(i + 2);
+            final String searchKey = text.trim().toLowerCase(Locale.ROOT);
+            if (loadData) {
+                wbTermsRows.add(number).add(propertyId).add("property").add(terms.get(i + 1)).add(terms.get(i))
+                        .add(text).add(searchKey).add(0).endRow();
+                continue;
+            }
+            pstmtInsertWbTerms.setInt(1, number);
+            pstmtInsertWbTerms.setString(2, propertyId);
+            pstmtInsertWbTerms.setString(3, terms.get(i + 1));
+            pstmtInsertWbTerms.setString(4, terms.get(i));
+            pstmtInsertWbTerms.setString(5, text);
+            pstmtInsertWbTerms.setString(6, searchKey);
+            executeUpdate(pstmtInsertWbTerms);
+        }
+    }
+
+    private void addPendingItem() throws SQLException {
+        pendingItems++;
+        if (pendingItems >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Add a new revision to existing items. Every item needs its <code>id</code>, its statements keep their ids and
+     * new statements get one. The pages of all items are looked up with a few queries, the rows are written like
+     * those of new items. The term store and the label index are not changed.
+     *
+     * @param items the JSON data of the items
+     * @return the number of edited items, items that do not exist are skipped
+     */
+    public int updateItems(List<String> items) throws SQLException {
+        final List<String> itemIds = new ArrayList<>(items.size());
+        for (String json : items) {
+            final String itemId = itemSerializer.topLevelString(json, "id");
+            if (itemId == null) {
+                throw new IllegalArgumentException("An item to update needs an id");
+            }
+            itemIds.add(itemId);
+        }
+        // The lookup has to see the pages and revisions that are still collected for a batch
+        flush();
+        final Map<String, Page> pages = selectPages(itemIds);
 
+        final String timestamp = timestamps.now();
+        int edited = 0;
+        for (int i = 0; i < items.size(); i++) {
+            final Page page = pages.get(itemIds.get(i));
+            if (page == null) {
+                log.warn("Skipping {}, the item does not exist", itemIds.get(i));
+                continue;
+            }
+            editItem(items.get(i), itemIds.get(i), page, timestamp);
+            edited++;
+        }
+        return edited;
+    }
+
+    private void editItem(String jsonString, String itemId, Page page, String timestamp) throws SQLException {
         if (preselectIds) {
-            pageId++;
-            pstmtInsertPage.setLong(1, pageId);
-            executeUpdate(pstmtInsertPage);
-        } else {
-            pstmtInsertPage.setLong(1, 0);
-            executeUpdate(pstmtInsertPage);
-            final ResultSet rs = pstmtInsertPage.getGeneratedKeys();
-            rs.next();
-            pageId = rs.getLong(1);
+            if (idsLeft == 0) {
+                useIdBlock(idAllocator.allocate(idBlockSize));
+            }
+            // The Q number of the block is left unused
+            idsLeft--;
+        }
+
+        final byte[] data = itemSerializer.serializeEdit(jsonString, itemId).getBytes(StandardCharsets.UTF_8);
+        final String sha1 = sha1base36(data);
+
+        textId = insertText(preselectIds ? textId + 1 : 0, data);
+        insertRevision(textId, page.id, timestamp, data.length, page.latest, sha1);
+
+        final String comment = "/* wbeditentity-update:0|de */";
+        commentId = insertComment(preselectIds ? commentId + 1 : 0, comment);
+
+        insertRevisionComment(textId, commentId);
+        insertRevisionActor(textId, timestamp, page.id);
+        contentId = insertContent(preselectIds ? contentId + 1 : 0, data.length, sha1, contentModelItem, "tt:" + textId);
+        insertSlots(textId, contentId);
+        updatePage(page.id, timestamp, textId, data.length);
+        insertEditRecentChanges(timestamp, itemId, commentId, page, textId, data.length);
+
+        // Another revision of the same item in this call follows this one
+        page.latest = textId;
+        page.length = data.length;
+        statistics.recordItem(data.length);
+        if (batchSize > 1 || loadData) {
+            addPendingItem();
+        }
+    }
+
+    /**
+     * The current revision of an item page.
+     */
+    private static class Page {
+        final long id;
+        long latest;
+        int length;
+
+        Page(long id, long latest, int length) {
+            this.id = id;
+            this.latest = latest;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Look up the pages of items with <code>IN</code> lists instead of one query per item.
+     *
+     * @return the pages by item id, missing items are left out
+     */
+    private Map<String, Page> selectPages(List<String> itemIds) throws SQLException {
+        final Map<String, Page> pages = new HashMap<>();
+        for (int start = 0; start < itemIds.size(); start += PAGE_LOOKUP_SIZE) {
+            final List<String> chunk = itemIds.subList(start, Math.min(itemIds.size(), start + PAGE_LOOKUP_SIZE));
+            final StringBuilder sql = new StringBuilder("SELECT page_title, page_id, page_latest, page_len FROM page WHERE page_namespace=120 AND page_title IN (?");
+            for (int i = 1; i < chunk.size(); i++) {
+                sql.append(",?");
+            }
+            final PreparedStatement pstmt = connection.prepareStatement(sql.append(')').toString());
+            for (int i = 0; i < chunk.size(); i++) {
+                pstmt.setString(i + 1, chunk.get(i));
+            }
+            final ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                pages.put(rs.getString(1), new Page(rs.getLong(2), rs.getLong(3), rs.getInt(4)));
+            }
             rs.close();
+            pstmt.close();
+        }
+        return pages;
+    }
+
+    private void updatePage(long id, String timestamp, long latest, int length) throws SQLException {
+        pstmtUpdatePage.setString(1, timestamp);
+        pstmtUpdatePage.setLong(2, latest);
+        pstmtUpdatePage.setInt(3, length);
+        pstmtUpdatePage.setLong(4, id);
+        executeUpdate(pstmtUpdatePage);
+    }
+
+    private void insertEditRecentChanges(String timestamp, String title, long comment, Page page, long revision, int length) throws SQLException {
+        if (loadData) {
+            recentChangesRows.add(0).add(timestamp).add(0).add("").add(ACTOR).add(120).add(title).add(comment)
+                    .add(0).add(0).add(0).add(page.id).add(revision).add(page.latest).add(0).add("mw.edit").add(0)
+                    .add("127.0.0.1").add(page.length).add(length).add(0).add(0).addNull().add("").add("").endRow();
+            return;
+        }
+        pstmtInsertEditRecentChanges.setString(1, timestamp);
+        pstmtInsertEditRecentChanges.setInt(2, ACTOR);
+        pstmtInsertEditRecentChanges.setString(3, title);
+        pstmtInsertEditRecentChanges.setLong(4, comment);
+        pstmtInsertEditRecentChanges.setLong(5, page.id);
+        pstmtInsertEditRecentChanges.setLong(6, revision);
+        pstmtInsertEditRecentChanges.setLong(7, page.latest);
+        pstmtInsertEditRecentChanges.setInt(8, page.length);
+        pstmtInsertEditRecentChanges.setInt(9, length);
+        executeUpdate(pstmtInsertEditRecentChanges);
+    }
+
+    private long insertText(long id, byte[] data) throws SQLException {
+        final byte[] text = compressText ? compress(data) : data;
+        final String flags = compressText ? "utf-8,gzip" : "utf-8";
+        if (loadData) {
+            textRows.add(id).add(text).add(flags).endRow();
+            return id;
+        }
+        pstmtInsertText.setLong(1, id);
+        pstmtInsertText.setBytes(2, text);
+        pstmtInsertText.setString(3, flags);
+        statistics.recordBytes("text", text.length);
+        return executeInsert(pstmtInsertText, id);
+    }
+
+    private byte[] compress(byte[] data) {
+        final Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+        return Arrays.copyOf(compressed, length);
+    }
+
+    private long insertPage(long id, int namespace, String title, String contentModel, String timestamp, long latest, int length) throws SQLException {
+        if (loadData) {
+            pageRows.add(id).add(namespace).add(title).add("").add(0).add(0).add(ThreadLocalRandom.current().nextDouble())
+                    .add(timestamp).add(timestamp).add(latest).add(length).add(contentModel).addNull().endRow();
+            return id;
         }
+        pstmtInsertPage.setLong(1, id);
+        pstmtInsertPage.setInt(2, namespace);
+        pstmtInsertPage.setString(3, title);
+        pstmtInsertPage.setString(4, timestamp);
+        pstmtInsertPage.setString(5, timestamp);
+        pstmtInsertPage.setLong(6, latest);
+        pstmtInsertPage.setInt(7, length);
+        pstmtInsertPage.setString(8, contentModel);
+        return executeInsert(pstmtInsertPage, id);
+    }
 
-        pstmtInsertRevision.setLong(1, textId);
-        pstmtInsertRevision.setLong(2, pageId);
-        pstmtInsertRevision.setLong(3, textId);
+    /**
+     * @param parent the previous revision of the page, 0 for a new page
+     */
+    private void insertRevision(long id, long page, String timestamp, int length, long parent, String sha1) throws SQLException {
+        if (loadData) {
+            revisionRows.add(id).add(page).add(id).add("").add(0).add("").add(timestamp).add(0).add(0).add(length)
+                    .add(parent).add(sha1).addNull().addNull().endRow();
+            return;
+        }
+        pstmtInsertRevision.setLong(1, id);
+        pstmtInsertRevision.setLong(2, page);
+        pstmtInsertRevision.setLong(3, id);
         pstmtInsertRevision.setString(4, timestamp);
-        pstmtInsertRevision.setInt(5, data.length());
-        pstmtInsertRevision.setString(6, sha1base36(data));
+        pstmtInsertRevision.setInt(5, length);
+        pstmtInsertRevision.setLong(6, parent);
+        pstmtInsertRevision.setString(7, sha1);
         executeUpdate(pstmtInsertRevision);
+    }
 
-        final String comment = "/* wbeditentity-create:2|de */ " + itemId;
-
+    private long insertComment(long id, String comment) throws SQLException {
+        if (loadData) {
+            commentRows.add(id).add(comment.hashCode()).add(comment).addNull().endRow();
+            return id;
+        }
+        pstmtInsertComment.setLong(1, id);
         pstmtInsertComment.setInt(2, comment.hashCode());
         pstmtInsertComment.setString(3, comment);
+        return executeInsert(pstmtInsertComment, id);
+    }
 
-        if (preselectIds) {
-            commentId++;
-            pstmtInsertComment.setLong(1, commentId);
-            executeUpdate(pstmtInsertComment);
-        } else {
-            pstmtInsertComment.setLong(1, 0);
-            executeUpdate(pstmtInsertComment);
-            final ResultSet rs = pstmtInsertComment.getGeneratedKeys();
-            rs.next();
-            commentId = rs.getLong(1);
-            rs.close();
+    private void insertRevisionComment(long revision, long comment) throws SQLException {
+        if (loadData) {
+            revisionCommentRows.add(revision).add(comment).endRow();
+            return;
         }
-
-        pstmtInsertRevisionComment.setLong(1, textId);
-        pstmtInsertRevisionComment.setLong(2, commentId);
+        pstmtInsertRevisionComment.setLong(1, revision);
+        pstmtInsertRevisionComment.setLong(2, comment);
         executeUpdate(pstmtInsertRevisionComment);
+    }
 
-        pstmtInsertRevisionActor.setLong(1, textId);
+    private void insertRevisionActor(long revision, String timestamp, long page) throws SQLException {
+        if (loadData) {
+            revisionActorRows.add(revision).add(ACTOR).add(timestamp).add(page).endRow();
+            return;
+        }
+        pstmtInsertRevisionActor.setLong(1, revision);
         pstmtInsertRevisionActor.setInt(2, ACTOR);
         pstmtInsertRevisionActor.setString(3, timestamp);
-        pstmtInsertRevisionActor.setLong(4, pageId);
+        pstmtInsertRevisionActor.setLong(4, page);
         executeUpdate(pstmtInsertRevisionActor);
+    }
 
-        pstmtInsertContent.setInt(2, data.length());
-        pstmtInsertContent.setString(3, sha1base36(data));
-        pstmtInsertContent.setInt(4, contentModelItem);
-        pstmtInsertContent.setString(5, "tt:" + textId);
-
-        if (preselectIds) {
-            contentId++;
-            pstmtInsertContent.setLong(1, contentId);
-            executeUpdate(pstmtInsertContent);
-        } else {
-            pstmtInsertContent.setLong(1, 0);
-            executeUpdate(pstmtInsertContent);
-            final ResultSet rs = pstmtInsertContent.getGeneratedKeys();
-            rs.next();
-            contentId = rs.getLong(1);
-            rs.close();
+    private long insertContent(long id, int size, String sha1, int model, String address) throws SQLException {
+        if (loadData) {
+            contentRows.add(id).add(size).add(sha1).add(model).add(address).endRow();
+            return id;
         }
+        pstmtInsertContent.setLong(1, id);
+        pstmtInsertContent.setInt(2, size);
+        pstmtInsertContent.setString(3, sha1);
+        pstmtInsertContent.setInt(4, model);
+        pstmtInsertContent.setString(5, address);
+        // The SHA-1 and the address are ASCII, the numbers are not counted
+        statistics.recordBytes("content", sha1.length() + address.length());
+        return executeInsert(pstmtInsertContent, id);
+    }
 
-        pstmtInsertSlots.setLong(1, textId);
-        pstmtInsertSlots.setLong(2, contentId);
-        pstmtInsertSlots.setLong(3, textId);
+    private void insertSlots(long revision, long content) throws SQLException {
+        if (loadData) {
+            slotsRows.add(revision).add(1).add(content).add(revision).endRow();
+            return;
+        }
+        pstmtInsertSlots.setLong(1, revision);
+        pstmtInsertSlots.setLong(2, content);
+        pstmtInsertSlots.setLong(3, revision);
         executeUpdate(pstmtInsertSlots);
+    }
 
+    private void insertRecentChanges(String timestamp, int namespace, String title, long comment, long revision, int length) throws SQLException {
+        if (!recentChanges) {
+            return;
+        }
+        if (loadData) {
+            recentChangesRows.add(0).add(timestamp).add(0).add("").add(ACTOR).add(namespace).add(title).add(comment)
+                    .add(0).add(0).add(1).add(revision).add(revision).add(0).add(1).add("mw.new").add(0)
+                    .add("127.0.0.1").add(0).add(length).add(0).add(0).addNull().add("").add("").endRow();
+            return;
+        }
         pstmtInsertRecentChanges.setString(1, timestamp);
         pstmtInsertRecentChanges.setInt(2, ACTOR);
-        pstmtInsertRecentChanges.setString(3, itemId);
-        pstmtInsertRecentChanges.setLong(4, commentId);
-        pstmtInsertRecentChanges.setLong(5, textId);
-        pstmtInsertRecentChanges.setLong(6, textId);
-        pstmtInsertRecentChanges.setInt(7, data.length());
+        pstmtInsertRecentChanges.setInt(3, namespace);
+        pstmtInsertRecentChanges.setString(4, title);
+        pstmtInsertRecentChanges.setLong(5, comment);
+        pstmtInsertRecentChanges.setLong(6, revision);
+        pstmtInsertRecentChanges.setLong(7, revision);
+        pstmtInsertRecentChanges.setInt(8, length);
         executeUpdate(pstmtInsertRecentChanges);
+    }
+
+    /**
+     * Write the terms and sitelinks that the serializer found in the entity. Rows of the term store that already exist
+     * are reused, new ones are written by the store.
+     *
+     * @param number      the number of the item or property
+     * @param entityTerms the INSERT into <code>wbt_item_terms</code> or <code>wbt_property_terms</code>
+     * @param entityRows  the rows of the same table for <code>LOAD DATA</code>
+     */
+    private void insertTerms(int number, PreparedStatement entityTerms, LoadDataBuffer entityRows) throws SQLException {
+        final List<String> terms = itemSerializer.getTerms();
+        itemTermIds.clear();
+        for (int i = 0; i < terms.size(); i += 3) {
+            final int typeId = termStore.getTypeId(terms.get(i));
+            final String language = terms.get(i + 1);
+            final String text = terms.get(i + 2);
 
-        pstmtUpdateWbIdCounters.setInt(1, lastQNumber);
-        executeUpdate(pstmtUpdateWbIdCounters);
+            final int wbxId = termStore.internText(pstmtSelectWbtText, text);
+            final int wbxlId = termStore.internTextInLang(pstmtSelectWbtTextInLang, wbxId, language);
+            // The same alias may be listed twice
+            itemTermIds.add(termStore.internTermInLang(pstmtSelectWbtTermInLang, wbxlId, typeId));
+        }
+        // Without a transaction the rows of the entity are visible at once, so new terms must be written before
+        if (connection.getAutoCommit()) {
+            termStore.flush();
+        }
+        for (int wbtlId : itemTermIds) {
+            if (loadData) {
+                entityRows.add(number).add(wbtlId).endRow();
+            } else {
+                entityTerms.setInt(1, number);
+                entityTerms.setInt(2, wbtlId);
+                executeUpdate(entityTerms);
+            }
+        }
 
-        return itemId;
+        final List<String> sitelinks = itemSerializer.getSitelinks();
+        for (int i = 0; i < sitelinks.size(); i += 2) {
+            if (loadData) {
+                itemsPerSiteRows.add(number).add(sitelinks.get(i)).add(sitelinks.get(i + 1)).endRow();
+            } else {
+                pstmtInsertItemsPerSite.setInt(1, number);
+                pstmtInsertItemsPerSite.setString(2, sitelinks.get(i));
+                pstmtInsertItemsPerSite.setString(3, sitelinks.get(i + 1));
+                executeUpdate(pstmtInsertItemsPerSite);
+            }
+        }
+    }
+
+    /**
+     * Execute an INSERT for a table with an auto-increment key.
+     *
+     * @param id the preselected id or 0 to let the database assign it
+     * @return the id of the new row
+     */
+    private long executeInsert(final PreparedStatement pstmt, long id) throws SQLException {
+        executeUpdate(pstmt);
+        if (preselectIds) {
+            return id;
+        }
+        final ResultSet rs = pstmt.getGeneratedKeys();
+        rs.next();
+        final long generatedId = rs.getLong(1);
+        rs.close();
+        return generatedId;
+    }
+
+    /**
+     * @param offset the position in the input after the last created item
+     * @param items  the number of items imported so far
+     * @return the last used ids, only valid after an item has been created
+     */
+    Checkpoint checkpoint(long offset, long items) {
+        return new Checkpoint(offset, items, lastQNumber, textId, pageId, commentId, contentId);
+    }
+
+    /**
+     * Continue with the ids of a new block. The counters always hold the last used id.
+     */
+    private void useIdBlock(IdBlock block) throws SQLException {
+        if (idJournal != null) {
+            if (connection.getAutoCommit()) {
+                throw new IllegalStateException("An id journal requires a transaction, call startTransaction() first");
+            }
+            addUnjournaledIds();
+        }
+        lastQNumber = block.getFirstQNumber() - 1;
+        textId = block.getFirstTextId() - 1;
+        pageId = block.getFirstPageId() - 1;
+        commentId = block.getFirstCommentId() - 1;
+        contentId = block.getFirstContentId() - 1;
+        idsLeft = block.getSize();
+        allocatedQNumber = ownsIdCounter ? 0 : lastQNumber + block.getSize();
+        journaledQNumber = lastQNumber;
+        journaledTextId = textId;
+        journaledPageId = pageId;
+        journaledCommentId = commentId;
+        journaledContentId = contentId;
     }
 
     private void executeUpdate(final PreparedStatement pstmt) throws SQLException {
+        if (batchSize > 1) {
+            pstmt.addBatch();
+        } else {
+            executeNow(pstmt);
+        }
+    }
 
-        // Here you have a chance to log the executed statement.
+    private void executeNow(final PreparedStatement pstmt) throws SQLException {
+        final long start = System.nanoTime();
+        final int rows = pstmt.executeUpdate();
+        statistics.recordStatement(tables.get(pstmt), System.nanoTime() - start, rows);
+    }
 
-        pstmt.executeUpdate();
+    private void executeBatch(final PreparedStatement pstmt) throws SQLException {
+        final long start = System.nanoTime();
+        final int[] counts = pstmt.executeBatch();
+        if (counts.length > 0) {
+            statistics.recordStatement(tables.get(pstmt), System.nanoTime() - start, counts.length);
+        }
     }
 }
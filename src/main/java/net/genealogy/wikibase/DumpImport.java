@@ -0,0 +1,83 @@
+package net.genealogy.wikibase;
+
+import org.apache.commons.lang3.time.StopWatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.sql.DriverManager;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Imports the items of a Wikidata JSON dump. The number of items per transaction and the batch size are adapted to
+ * the throughput.
+ * <p>
+ * Usage: <code>DumpImport [--defer-indexes] dump.json.gz jdbc-url user password [rdf directory]</code>
+ * <p>
+ * With an RDF directory the items are also written as Turtle for the query service, see {@link TurtleExport}, and
+ * no rows are added to <code>recentchanges</code>.
+ * <p>
+ * With <code>--defer-indexes</code> the secondary indexes are dropped during the import and rebuilt at the end, see
+ * {@link BulkLoadSession}. Their definitions are kept in <code>dump.json.gz.indexes</code> until then. This changes the
+ * schema, so only use it if the wiki is not in use during the import. The used id ranges are recorded in
+ * <code>dump.json.gz.ids</code>, so the import can be undone with {@link RollbackLoad}.
+ */
+public class DumpImport {
+
+    private static final Logger log = LoggerFactory.getLogger(DumpImport.class);
+    private static final int ITEMS_PER_TRANSACTION = 10000;
+    private static final int BATCH_SIZE = 1000;
+    private static final int ITEMS_PER_RDF_FILE = 100000;
+    private static final String CONCEPT_BASE_URI = "http://wikibase.svc/";
+
+    public static void main(String[] arguments) throws Exception {
+        final boolean deferIndexes = arguments.length > 0 && "--defer-indexes".equals(arguments[0]);
+        final String[] args = deferIndexes ? Arrays.copyOfRange(arguments, 1, arguments.length) : arguments;
+        if (args.length != 4 && args.length != 5) {
+            System.err.println("Usage: DumpImport [--defer-indexes] <dump file> <jdbc url> <user> <password> [rdf directory]");
+            System.exit(1);
+        }
+
+        final DatabaseInsert di = new DatabaseInsert(DriverManager.getConnection(args[1], args[2], args[3]));
+        final WriteStatistics statistics = di.getStatistics();
+        statistics.register("DumpImport");
+        statistics.startReporting(1, TimeUnit.MINUTES);
+        statistics.showProgress("Import", -1);
+        final int parserThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        final StopWatch stopWatch = new StopWatch();
+        stopWatch.start();
+
+        int numberOfItems = 0;
+        try (IdJournal idJournal = new IdJournal(new File(args[0] + ".ids"));
+             TurtleExport turtleExport = args.length == 5 ? new TurtleExport(new File(args[4]), CONCEPT_BASE_URI, ITEMS_PER_RDF_FILE) : null) {
+            di.setIdJournal(idJournal);
+            if (turtleExport != null) {
+                di.setTurtleExport(turtleExport);
+                di.setRecentChanges(false);
+            }
+            try (BulkLoadSession bulkLoad = deferIndexes ? di.startBulkLoad(new File(args[0] + ".indexes")) : null;
+                 DumpReader dump = new DumpReader(new File(args[0]), parserThreads, 10000)) {
+                final TransactionController transactions = new TransactionController(di, ITEMS_PER_TRANSACTION, BATCH_SIZE);
+                transactions.setAdaptive(true);
+                transactions.start();
+                while (dump.hasNext()) {
+                    di.createItem(dump.next());
+                    numberOfItems++;
+                    transactions.itemCreated();
+                }
+                transactions.finish();
+                if (bulkLoad != null) {
+                    bulkLoad.finish();
+                }
+            }
+            di.destroy();
+        }
+        statistics.close();
+        statistics.report();
+
+        stopWatch.stop();
+        log.info("Imported {} items in {} s.", numberOfItems, stopWatch.getTime(TimeUnit.SECONDS));
+        System.exit(0);
+    }
+}
@@ -0,0 +1,214 @@
+package net.genealogy.wikibase;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.json.JSONException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the items of a Wikidata JSON dump. The dump is a JSON array with one entity per line, optionally compressed
+ * with gzip or bzip2.
+ * <p>
+ * The file is decompressed on its own thread and the lines are parsed by a pool of threads. The parsed items are
+ * handed over through a bounded queue, so the reader waits if the writer cannot keep up. The order of the items is not
+ * preserved.
+ */
+public class DumpReader implements Iterator<String>, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(DumpReader.class);
+    private static final int LINES_PER_CHUNK = 100;
+    /**
+     * Keys of the dump format that are not part of the JSON stored by Wikibase.
+     */
+    private static final String[] DUMP_ONLY_KEYS = {"id", "lastrevid", "modified", "pageid", "ns", "title"};
+    /**
+     * Marks the end of the input. Compared by identity.
+     */
+    private static final List<String> END_OF_CHUNKS = new ArrayList<>();
+    private static final String END_OF_ITEMS = new String("");
+
+    private final InputStream input;
+    private final ExecutorService executor;
+    private final BlockingQueue<List<String>> chunks;
+    private final BlockingQueue<String> items;
+    private final AtomicInteger runningParsers;
+    private volatile Throwable failure;
+    private String nextItem;
+
+    /**
+     * Start reading a dump.
+     *
+     * @param file          a <code>.json</code>, <code>.json.gz</code> or <code>.json.bz2</code> file
+     * @param parserThreads number of threads that parse the JSON
+     * @param queueSize     number of parsed items that are kept in memory
+     */
+    public DumpReader(File file, int parserThreads, int queueSize) throws IOException {
+        this.input = open(file);
+        this.executor = Executors.newFixedThreadPool(parserThreads + 1);
+        this.chunks = new ArrayBlockingQueue<>(parserThreads * 4);
+        this.items = new ArrayBlockingQueue<>(queueSize);
+        this.runningParsers = new AtomicInteger(parserThreads);
+
+        executor.submit(() -> {
+            try {
+                readChunks(parserThreads);
+            } catch (Throwable e) {
+                fail(e);
+            }
+        });
+        for (int i = 0; i < parserThreads; i++) {
+            executor.submit(() -> {
+                try {
+                    parseChunks();
+                } catch (Throwable e) {
+                    fail(e);
+                }
+            });
+        }
+    }
+
+    static InputStream open(File file) throws IOException {
+        final InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+        if (file.getName().endsWith(".gz")) {
+            return new GZIPInputStream(in, 1 << 16);
+        } else if (file.getName().endsWith(".bz2")) {
+            // Wikidata dumps are written by a parallel bzip2 and consist of several streams
+            return new BZip2CompressorInputStream(in, true);
+        }
+        return in;
+    }
+
+    private void readChunks(int parserThreads) throws IOException, InterruptedException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), 1 << 16);
+        List<String> chunk = new ArrayList<>(LINES_PER_CHUNK);
+        String line = reader.readLine();
+        while (line != null) {
+            chunk.add(line);
+            if (chunk.size() == LINES_PER_CHUNK) {
+                chunks.put(chunk);
+                chunk = new ArrayList<>(LINES_PER_CHUNK);
+            }
+            line = reader.readLine();
+        }
+        chunks.put(chunk);
+        for (int i = 0; i < parserThreads; i++) {
+            chunks.put(END_OF_CHUNKS);
+        }
+    }
+
+    private void parseChunks() throws InterruptedException {
+        final ItemSerializer serializer = new ItemSerializer();
+        List<String> chunk = chunks.take();
+        while (chunk != END_OF_CHUNKS) {
+            for (String line : chunk) {
+                final String item = parse(serializer, line);
+                if (item != null) {
+                    items.put(item);
+                }
+            }
+            chunk = chunks.take();
+        }
+        if (runningParsers.decrementAndGet() == 0) {
+            items.put(END_OF_ITEMS);
+        }
+    }
+
+    /**
+     * Parse one line of the dump.
+     *
+     * @return the item without the keys that are assigned by the database, or <code>null</code> if the line does not
+     * contain an item
+     */
+    static String parse(ItemSerializer serializer, String line) {
+        final String json = entity(line);
+        if (json == null) {
+            return null;
+        }
+        try {
+            if (!"item".equals(serializer.topLevelString(json, "type"))) {
+                return null;
+            }
+            return serializer.removeKeys(json, DUMP_ONLY_KEYS);
+        } catch (JSONException e) {
+            log.warn("Skipping invalid line: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return the entity of a line of the dump without the separating comma, or <code>null</code> if the line does not
+     * contain an entity
+     */
+    static String entity(String line) {
+        int end = line.length();
+        while (end > 0 && (Character.isWhitespace(line.charAt(end - 1)) || line.charAt(end - 1) == ',')) {
+            end--;
+        }
+        // The opening and closing brackets of the array are on lines of their own
+        if (end == 0 || line.charAt(0) == '[' || line.charAt(0) == ']') {
+            return null;
+        }
+        return line.substring(0, end);
+    }
+
+    private void fail(Throwable e) {
+        if (failure == null) {
+            failure = e;
+        }
+        // Wake up the consumer, the queue may be full if the consumer is not waiting
+        items.clear();
+        items.offer(END_OF_ITEMS);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextItem == null) {
+            try {
+                nextItem = items.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while reading the dump", e);
+            }
+        }
+        if (failure != null) {
+            throw new IllegalStateException("Could not read the dump", failure);
+        }
+        return nextItem != END_OF_ITEMS;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final String item = nextItem;
+        nextItem = null;
+        return item;
+    }
+
+    @Override
+    public void close() throws IOException {
+        executor.shutdownNow();
+        input.close();
+    }
+}
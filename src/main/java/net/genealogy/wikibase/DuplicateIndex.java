@@ -0,0 +1,256 @@
+package net.genealogy.wikibase;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Recognizes items that exist already, so an import can be run again without creating duplicates.
+ * <p>
+ * The fingerprint of an item consists of one key for its label and description in one language and one key for
+ * every value of the key properties, e.g. an external id like <code>P214</code>. Every key is a 64 bit hash. A Bloom
+ * filter tells quickly whether a key is certainly new, otherwise a hash map gives the number of the item with this
+ * key. Since the hashes can collide, {@link DatabaseInsert} compares the fingerprint with the stored item before it
+ * treats an item as duplicate. Key properties are matched by id, not by label. The index is safe for use by several
+ * writers.
+ * <p>
+ * The connection of a writer cannot read the items that other writers have not committed yet. The index therefore
+ * keeps the keys of new items until their transaction ends and compares with these keys instead. Such a match is
+ * trusted, so if the other transaction is rolled back, the item refers to an item that does not exist.
+ */
+public class DuplicateIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(DuplicateIndex.class);
+    private static final ThreadLocal<ItemSerializer> SCANNER = ThreadLocal.withInitial(ItemSerializer::new);
+    private final String language;
+    private final String[] keyProperties;
+    private final BloomFilter filter;
+    private final LongIntHashMap items;
+    /**
+     * The keys of new items by number until their transaction is committed or rolled back.
+     */
+    private final Map<Integer, long[]> uncommitted = new HashMap<>();
+    private long duplicates;
+    private long falsePositives;
+
+    /**
+     * @param language      the language of the label and description
+     * @param expectedItems the number of existing and new items, which determines the size of the Bloom filter
+     * @param keyProperties the properties whose values identify an item
+     */
+    public DuplicateIndex(Locale language, int expectedItems, String... keyProperties) {
+        this.language = language.toLanguageTag();
+        this.keyProperties = keyProperties;
+        final int expectedKeys = expectedItems * (1 + keyProperties.length);
+        filter = new BloomFilter(expectedKeys);
+        items = new LongIntHashMap(expectedKeys);
+    }
+
+    /**
+     * Read the current revision of all items. Items whose text is stored externally are skipped.
+     */
+    public void load(Connection connection) throws SQLException {
+        final PreparedStatement pstmt = connection.prepareStatement(
+                "SELECT page_title, old_text, old_flags FROM page JOIN revision ON rev_id=page_latest JOIN text ON old_id=rev_text_id" +
+                        " WHERE page_namespace=120",
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        // Let the MySQL driver stream the rows instead of reading the whole table into memory
+        pstmt.setFetchSize(Integer.MIN_VALUE);
+        final ResultSet rs = pstmt.executeQuery();
+        int rows = 0;
+        while (rs.next()) {
+            final String json = decode(rs.getBytes(2), rs.getString(3));
+            if (json != null) {
+                put(keys(json), Integer.parseInt(rs.getString(1).substring(1)));
+                rows++;
+            }
+        }
+        rs.close();
+        pstmt.close();
+        log.info("Loaded the fingerprints of {} items.", rows);
+    }
+
+    /**
+     * @return the keys of the fingerprint of an item
+     */
+    long[] keys(String json) {
+        final List<String> values = SCANNER.get().scanKeys(json, language, keyProperties);
+        final String label = values.get(0);
+        final long[] keys = new long[(label == null ? 0 : 1) + values.size() / 2 - 1];
+        int count = 0;
+        if (label != null) {
+            final String description = values.get(1);
+            keys[count++] = hash('T', label, description == null ? "" : description);
+        }
+        for (int i = 2; i < values.size(); i += 2) {
+            keys[count++] = hash('C', values.get(i), values.get(i + 1));
+        }
+        return keys;
+    }
+
+    /**
+     * @return the number of an item that may have one of the keys or 0 if the item is certainly new
+     */
+    synchronized int find(long[] keys) {
+        for (long key : keys) {
+            if (filter.mightContain(key)) {
+                final int number = items.get(key);
+                if (number != 0) {
+                    return number;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Add the fingerprint of an item. If several items have the same key, the one with the lowest number is kept.
+     */
+    synchronized void put(long[] keys, int number) {
+        for (long key : keys) {
+            filter.add(key);
+            final int previous = items.get(key);
+            if (previous == 0 || number < previous) {
+                items.put(key, number);
+            }
+        }
+    }
+
+    /**
+     * Add the fingerprint of an item whose transaction has not been committed yet.
+     */
+    synchronized void putUncommitted(long[] keys, int number) {
+        put(keys, number);
+        uncommitted.put(number, keys);
+    }
+
+    /**
+     * @return the keys of an item that has not been committed yet or <code>null</code>
+     */
+    synchronized long[] getUncommittedKeys(int number) {
+        return uncommitted.get(number);
+    }
+
+    /**
+     * Forget the keys of items whose transaction has ended. Rolled back items stay in the index, they are recognized
+     * as false positives when they cannot be read.
+     */
+    synchronized void release(Collection<Integer> numbers) {
+        for (Integer number : numbers) {
+            uncommitted.remove(number);
+        }
+    }
+
+    /**
+     * Compare a fingerprint with a stored item and count the result.
+     *
+     * @param json the stored item or <code>null</code> if it could not be read
+     * @return <code>true</code> if the item has one of the keys
+     */
+    boolean matches(long[] keys, String json) {
+        return matches(keys, json == null ? new long[0] : keys(json));
+    }
+
+    /**
+     * Compare a fingerprint with the keys of another item and count the result.
+     */
+    boolean matches(long[] keys, long[] existing) {
+        for (long key : keys) {
+            for (long other : existing) {
+                if (key == other) {
+                    synchronized (this) {
+                        duplicates++;
+                    }
+                    return true;
+                }
+            }
+        }
+        synchronized (this) {
+            falsePositives++;
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of items that have been recognized as duplicates
+     */
+    public synchronized long getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @return the number of items that were checked in the database but turned out to be new
+     */
+    public synchronized long getFalsePositives() {
+        return falsePositives;
+    }
+
+    /**
+     * @return the JSON of a row of <code>text</code> or <code>null</code> if it is stored externally
+     */
+    static String decode(byte[] text, String flags) {
+        final byte[] data = uncompress(text, flags);
+        return data == null ? null : new String(data, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the UTF-8 bytes of a row of <code>text</code> or <code>null</code> if it is stored externally
+     */
+    static byte[] uncompress(byte[] text, String flags) {
+        if (flags.contains("external") || flags.contains("object")) {
+            return null;
+        }
+        if (!flags.contains("gzip")) {
+            return text;
+        }
+        // MediaWiki stores raw deflate data
+        final Inflater inflater = new Inflater(true);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(text.length * 4);
+        final byte[] buffer = new byte[8192];
+        try {
+            inflater.setInput(text);
+            while (!inflater.finished() && !inflater.needsInput()) {
+                final int length = inflater.inflate(buffer);
+                out.write(buffer, 0, length);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Invalid compressed text", e);
+        } finally {
+            inflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * FNV-1a over the type and the parts, separated by a zero character, followed by the finalizer of MurmurHash3.
+     */
+    private static long hash(char type, String... parts) {
+        long h = 0xcbf29ce484222325L;
+        h = (h ^ type) * 0x100000001b3L;
+        for (String part : parts) {
+            h *= 0x100000001b3L;
+            for (int i = 0; i < part.length(); i++) {
+                h = (h ^ part.charAt(i)) * 0x100000001b3L;
+            }
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,17 @@
+package net.genealogy.wikibase;
+
+import lombok.Value;
+
+/**
+ * A contiguous range of ids that is reserved for a number of items. Every item uses one Q number and one row id of
+ * each of the tables <code>text</code>, <code>page</code>, <code>comment</code> and <code>content</code>.
+ */
+@Value
+public class IdBlock {
+    int firstQNumber;
+    long firstTextId;
+    long firstPageId;
+    long firstCommentId;
+    long firstContentId;
+    int size;
+}
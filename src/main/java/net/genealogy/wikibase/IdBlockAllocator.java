@@ -0,0 +1,24 @@
+package net.genealogy.wikibase;
+
+import java.sql.SQLException;
+
+/**
+ * Hands out disjoint blocks of ids to the writers of a load.
+ */
+public interface IdBlockAllocator {
+
+    /**
+     * Reserve ids for the specified number of items.
+     *
+     * @param size number of items
+     * @return a block that is not used by any other writer
+     */
+    IdBlock allocate(int size) throws SQLException;
+
+    /**
+     * Reserve the number of a new property.
+     *
+     * @return a number that is not used by any other writer
+     */
+    int allocatePropertyNumber() throws SQLException;
+}
@@ -0,0 +1,76 @@
+package net.genealogy.wikibase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the ids that writers have used, so {@link RollbackLoad} can delete the rows of a load again. Every line is
+ * one {@link IdRanges}: the first and last Q number and the first and last ids of <code>text</code>,
+ * <code>page</code>, <code>comment</code> and <code>content</code>, followed by the last Q number of the block. Since
+ * the ids of a block are used in order, a few lines cover all ids of a transaction.
+ * <p>
+ * The ranges of a transaction are appended and synced before the commit, so every committed row is covered even if
+ * the process dies. The journal may be shared by several writers and is continued if the file exists.
+ */
+public class IdJournal implements AutoCloseable {
+
+    private static final int FIELDS = 11;
+    private final FileOutputStream out;
+    private final Writer writer;
+
+    public IdJournal(File file) throws IOException {
+        out = new FileOutputStream(file, true);
+        writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+    }
+
+    synchronized void record(List<IdRanges> ranges) {
+        try {
+            for (IdRanges r : ranges) {
+                writer.write(r.getFirstQNumber() + " " + r.getLastQNumber() + " " + r.getFirstTextId() + " "
+                        + r.getLastTextId() + " " + r.getFirstPageId() + " " + r.getLastPageId() + " "
+                        + r.getFirstCommentId() + " " + r.getLastCommentId() + " " + r.getFirstContentId() + " "
+                        + r.getLastContentId() + " " + r.getLastAllocatedQNumber() + "\n");
+            }
+            writer.flush();
+            out.getFD().sync();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write the id journal", e);
+        }
+    }
+
+    /**
+     * @return the ranges of all writers in the order in which they were recorded
+     */
+    public static List<IdRanges> read(File file) throws IOException {
+        final List<IdRanges> ranges = new ArrayList<>();
+        final String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        final String[] lines = content.split("\n");
+        // A last line without its line break may end within a number, its transaction has not been committed
+        final int complete = content.endsWith("\n") ? lines.length : lines.length - 1;
+        for (int i = 0; i < complete; i++) {
+            final String[] fields = lines[i].trim().split(" ");
+            if (fields.length != FIELDS) {
+                throw new IOException("Invalid line " + (i + 1) + " in " + file);
+            }
+            final long[] ids = new long[FIELDS];
+            for (int f = 0; f < FIELDS; f++) {
+                ids[f] = Long.parseLong(fields[f]);
+            }
+            ranges.add(new IdRanges(ids[0], ids[1], ids[2], ids[3], ids[4], ids[5], ids[6], ids[7], ids[8], ids[9], ids[10]));
+        }
+        return ranges;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
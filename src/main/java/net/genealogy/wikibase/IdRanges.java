@@ -0,0 +1,56 @@
+package net.genealogy.wikibase;
+
+import lombok.Value;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * The ids that a writer has used within one {@link IdBlock}, as first and last id per kind. A range whose last id is
+ * smaller than its first id is empty, e.g. the Q numbers of a block that was only used for edits. The last Q number
+ * of the whole block is kept as well if <code>wb_id_counters</code> is advanced by whole blocks, otherwise it is 0.
+ */
+@Value
+public class IdRanges {
+    long firstQNumber;
+    long lastQNumber;
+    long firstTextId;
+    long lastTextId;
+    long firstPageId;
+    long lastPageId;
+    long firstCommentId;
+    long lastCommentId;
+    long firstContentId;
+    long lastContentId;
+    long lastAllocatedQNumber;
+
+    boolean isEmpty() {
+        return lastQNumber < firstQNumber && lastTextId < firstTextId && lastPageId < firstPageId
+                && lastCommentId < firstCommentId && lastContentId < firstContentId;
+    }
+
+    /**
+     * @return the sorted ranges of one kind of id, adjacent and overlapping ranges merged, as pairs of first and last
+     * id
+     */
+    static List<long[]> merge(List<IdRanges> journal, ToLongFunction<IdRanges> first, ToLongFunction<IdRanges> last) {
+        final List<long[]> ranges = new ArrayList<>();
+        for (IdRanges entry : journal) {
+            if (last.applyAsLong(entry) >= first.applyAsLong(entry)) {
+                ranges.add(new long[]{first.applyAsLong(entry), last.applyAsLong(entry)});
+            }
+        }
+        ranges.sort((a, b) -> Long.compare(a[0], b[0]));
+        final List<long[]> merged = new ArrayList<>();
+        for (long[] range : ranges) {
+            final long[] previous = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (previous != null && range[0] <= previous[1] + 1) {
+                previous[1] = Math.max(previous[1], range[1]);
+            } else {
+                merged.add(range);
+            }
+        }
+        return merged;
+    }
+}
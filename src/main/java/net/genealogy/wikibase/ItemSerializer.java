@@ -0,0 +1,741 @@
+package net.genealogy.wikibase;
+
+import org.json.JSONException;
+import org.json.JSONTokener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Copies the JSON of an item token by token without building a DOM. Insignificant whitespace is dropped, everything
+ * else is copied verbatim.
+ * <p>
+ * If a {@link LabelIndex} is set, properties and items can be referenced by label within the claims, e.g.
+ * <code>"P:instance of"</code> or <code>"Q:human"</code>. This works for the keys and the string values, with the
+ * exception of plain string data values and monolingual texts. The <code>numeric-id</code> of an entity value that is
+ * referenced by label has to be omitted.
+ * <p>
+ * An instance reuses its buffer and must not be shared between threads.
+ */
+class ItemSerializer {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final String[] SNAK_VALUE = {"mainsnak", "datavalue", "value"};
+    private final StringBuilder out = new StringBuilder(4096);
+    private String in;
+    private int pos;
+    private LabelIndex labelIndex;
+    private boolean collectTerms;
+    private boolean keepStatementIds;
+    private final List<String> terms = new ArrayList<>();
+    private final List<String> sitelinks = new ArrayList<>();
+    private final List<String> keyValues = new ArrayList<>();
+
+    void setLabelIndex(LabelIndex labelIndex) {
+        this.labelIndex = labelIndex;
+    }
+
+    /**
+     * Remember the labels, descriptions, aliases and sitelinks of every serialized item.
+     */
+    void setCollectTerms(boolean collectTerms) {
+        this.collectTerms = collectTerms;
+    }
+
+    /**
+     * @return the label of the last serialized item in the language of the label index, or <code>null</code>
+     */
+    String getLabel() {
+        for (int i = 0; i < terms.size(); i += 3) {
+            if ("label".equals(terms.get(i)) && terms.get(i + 1).equals(labelIndex.getLanguage())) {
+                return terms.get(i + 2);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the terms of the last serialized item, three entries per term: the type (<code>label</code>,
+     * <code>description</code> or <code>alias</code>), the language and the text
+     */
+    List<String> getTerms() {
+        return terms;
+    }
+
+    /**
+     * @return the sitelinks of the last serialized item, two entries per sitelink: the site id and the title
+     */
+    List<String> getSitelinks() {
+        return sitelinks;
+    }
+
+    /**
+     * Add the item id and the statement ids to the JSON of a new item. If the item already has an id, the JSON is
+     * copied unchanged.
+     *
+     * @param json   the JSON of the item
+     * @param itemId the id of the new item
+     * @return compact JSON
+     */
+    String serialize(String json, String itemId) {
+        keepStatementIds = false;
+        // Most items do not have an id yet, so the id is written optimistically and the copy is repeated otherwise
+        if (!copyItem(json, itemId, itemId)) {
+            copyItem(json, null, null);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Add the property id and the statement ids to the JSON of a new property like {@link #serialize(String, String)}.
+     * The terms are always collected, since they are written to <code>wb_terms</code>.
+     */
+    String serializeProperty(String json, String propertyId) {
+        final boolean collect = collectTerms;
+        collectTerms = true;
+        try {
+            return serialize(json, propertyId);
+        } finally {
+            collectTerms = collect;
+        }
+    }
+
+    /**
+     * Copy the JSON of an existing item for a new revision. The ids of the item and of its statements are kept,
+     * statements without an id get a new one.
+     *
+     * @param itemId the id of the item
+     * @return compact JSON
+     */
+    String serializeEdit(String json, String itemId) {
+        keepStatementIds = true;
+        copyItem(json, null, itemId);
+        return out.toString();
+    }
+
+    /**
+     * Remove keys from the top level of a JSON object.
+     */
+    String removeKeys(String json, String[] keys) {
+        start(json);
+        expect('{');
+        out.append('{');
+        boolean empty = true;
+        if (!endOfContainer('}')) {
+            do {
+                final int keyStart = pos;
+                final int keyEnd = scanString();
+                skipWhitespace();
+                expect(':');
+                if (isAnyKey(keyStart, keys)) {
+                    skipValue();
+                } else {
+                    empty = appendKey(empty, keyStart, keyEnd);
+                    copyValue(false);
+                }
+            } while (nextMember('}'));
+        }
+        out.append('}');
+        return out.toString();
+    }
+
+    /**
+     * Find a string on the top level of a JSON object without copying the object.
+     *
+     * @return the raw value or <code>null</code> if the key does not exist or the value is not a string
+     */
+    String topLevelString(String json, String key) {
+        start(json);
+        expect('{');
+        if (!endOfContainer('}')) {
+            do {
+                final int keyStart = pos;
+                scanString();
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                if (isKey(keyStart, key) && pos < in.length() && in.charAt(pos) == '"') {
+                    final int valueStart = pos;
+                    final int valueEnd = scanString();
+                    return in.substring(valueStart + 1, valueEnd - 1);
+                }
+                skipValue();
+            } while (nextMember('}'));
+        }
+        return null;
+    }
+
+    /**
+     * Find the label and description in one language and the values of some properties without copying the item.
+     *
+     * @param properties the ids of the properties
+     * @return the label and the description, <code>null</code> if missing, followed by two entries for every value of
+     * the properties: the property and the string or the entity id of the main snak. The list is reused by the next
+     * call.
+     */
+    List<String> scanKeys(String json, String language, String[] properties) {
+        start(json);
+        keyValues.clear();
+        keyValues.add(null);
+        keyValues.add(null);
+        final String[] term = {language, "value"};
+        expect('{');
+        if (!endOfContainer('}')) {
+            do {
+                final int keyStart = pos;
+                scanString();
+                skipWhitespace();
+                expect(':');
+                if (isKey(keyStart, "labels")) {
+                    keyValues.set(0, scanPath(term, 0, false));
+                } else if (isKey(keyStart, "descriptions")) {
+                    keyValues.set(1, scanPath(term, 0, false));
+                } else if (isKey(keyStart, "claims")) {
+                    scanClaims(properties);
+                } else {
+                    skipValue();
+                }
+            } while (nextMember('}'));
+        }
+        return keyValues;
+    }
+
+    private void scanClaims(String[] properties) {
+        skipWhitespace();
+        if (peek() != '{') {
+            skipValue();
+            return;
+        }
+        pos++;
+        if (!endOfContainer('}')) {
+            do {
+                final int keyStart = pos;
+                scanString();
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                String property = null;
+                for (String candidate : properties) {
+                    if (isKey(keyStart, candidate)) {
+                        property = candidate;
+                    }
+                }
+                if (property == null || peek() != '[') {
+                    skipValue();
+                    continue;
+                }
+                pos++;
+                if (!endOfContainer(']')) {
+                    do {
+                        final String value = scanPath(SNAK_VALUE, 0, true);
+                        if (value != null) {
+                            keyValues.add(property);
+                            keyValues.add(value);
+                        }
+                    } while (nextMember(']'));
+                }
+            } while (nextMember('}'));
+        }
+    }
+
+    /**
+     * Consume a value and find the string at a path of keys within it.
+     *
+     * @param entityId accept an object with an <code>id</code> at the end of the path as well
+     * @return the unescaped string or <code>null</code> if the path does not exist or does not end at a string
+     */
+    private String scanPath(String[] path, int depth, boolean entityId) {
+        skipWhitespace();
+        if (depth == path.length && peek() == '"') {
+            final int start = pos;
+            final int end = scanString();
+            return unescape(start + 1, end - 1);
+        }
+        if (depth == path.length && entityId && peek() == '{') {
+            return scanPath(new String[]{"id"}, 0, false);
+        }
+        if (depth == path.length || peek() != '{') {
+            skipValue();
+            return null;
+        }
+        pos++;
+        String found = null;
+        if (!endOfContainer('}')) {
+            do {
+                final int keyStart = pos;
+                scanString();
+                skipWhitespace();
+                expect(':');
+                if (isKey(keyStart, path[depth])) {
+                    found = scanPath(path, depth + 1, entityId);
+                } else {
+                    skipValue();
+                }
+            } while (nextMember('}'));
+        }
+        return found;
+    }
+
+    /**
+     * @param itemId          the id to add or <code>null</code> to copy the item id unchanged
+     * @param statementItemId the item id for new statement ids or <code>null</code> to copy the statements unchanged
+     * @return <code>false</code> if an id should be added but the item already has one
+     */
+    private boolean copyItem(String json, String itemId, String statementItemId) {
+        start(json);
+        terms.clear();
+        sitelinks.clear();
+        final boolean collect = collectTerms || labelIndex != null;
+        expect('{');
+        out.append('{');
+        boolean empty = true;
+        if (itemId != null) {
+            out.append("\"id\":\"").append(itemId).append('"');
+            empty = false;
+        }
+        if (!endOfContainer('}')) {
+            do {
+                final int keyStart = pos;
+                final int keyEnd = scanString();
+                skipWhitespace();
+                expect(':');
+                if (itemId != null && isKey(keyStart, "id")) {
+                    return false;
+                }
+                empty = appendKey(empty, keyStart, keyEnd);
+                if (isKey(keyStart, "claims")) {
+                    copyClaims(statementItemId);
+                } else if (collect && isKey(keyStart, "labels")) {
+                    copyTerms("label", false);
+                } else if (collect && isKey(keyStart, "descriptions")) {
+                    copyTerms("description", false);
+                } else if (collect && isKey(keyStart, "aliases")) {
+                    copyTerms("alias", true);
+                } else if (collect && isKey(keyStart, "sitelinks")) {
+                    copySitelinks();
+                } else {
+                    copyValue(false);
+                }
+            } while (nextMember('}'));
+        }
+        out.append('}');
+        return true;
+    }
+
+    /**
+     * Copy the claims and give every statement a new id. Wikibase writes empty claims as an empty array.
+     *
+     * @param itemId the id of the item or <code>null</code> to keep the statement ids
+     */
+    private void copyClaims(String itemId) {
+        final boolean resolve = labelIndex != null;
+        skipWhitespace();
+        if (peek() != '{' || (itemId == null && !resolve)) {
+            copyValue(resolve);
+            return;
+        }
+        pos++;
+        out.append('{');
+        boolean empty = true;
+        if (!endOfContainer('}')) {
+            do {
+                final int keyStart = pos;
+                final int keyEnd = scanString();
+                skipWhitespace();
+                expect(':');
+                if (!empty) {
+                    out.append(',');
+                }
+                empty = false;
+                appendString(keyStart, keyEnd, resolve);
+                out.append(':');
+                skipWhitespace();
+                expect('[');
+                out.append('[');
+                if (!endOfContainer(']')) {
+                    boolean first = true;
+                    do {
+                        if (!first) {
+                            out.append(',');
+                        }
+                        first = false;
+                        if (itemId == null) {
+                            copyValue(resolve);
+                        } else {
+                            copyStatement(itemId, resolve);
+                        }
+                    } while (nextMember(']'));
+                }
+                out.append(']');
+            } while (nextMember('}'));
+        }
+        out.append('}');
+    }
+
+    private void copyStatement(String itemId, boolean resolve) {
+        if (keepStatementIds && hasKey("id")) {
+            copyValue(resolve);
+            return;
+        }
+        skipWhitespace();
+        expect('{');
+        out.append("{\"id\":\"").append(itemId).append('$');
+        appendGuid();
+        out.append('"');
+        if (!endOfContainer('}')) {
+            do {
+                final int keyStart = pos;
+                final int keyEnd = scanString();
+                skipWhitespace();
+                expect(':');
+                if (isKey(keyStart, "id")) {
+                    skipValue();
+                } else {
+                    appendKey(false, keyStart, keyEnd);
+                    copyValue(resolve);
+                }
+            } while (nextMember('}'));
+        }
+        out.append('}');
+    }
+
+    /**
+     * Copy the labels, descriptions or aliases and remember them. Wikibase writes an empty map as an empty array.
+     *
+     * @param multiple <code>true</code> if there is a list of terms per language
+     */
+    private void copyTerms(String type, boolean multiple) {
+        skipWhitespace();
+        if (peek() != '{') {
+            copyValue(false);
+            return;
+        }
+        pos++;
+        out.append('{');
+        boolean empty = true;
+        if (!endOfContainer('}')) {
+            do {
+                final int keyStart = pos;
+                final int keyEnd = scanString();
+                skipWhitespace();
+                expect(':');
+                empty = appendKey(empty, keyStart, keyEnd);
+                final String language = unescape(keyStart + 1, keyEnd - 1);
+                if (multiple) {
+                    skipWhitespace();
+                    expect('[');
+                    out.append('[');
+                    if (!endOfContainer(']')) {
+                        boolean first = true;
+                        do {
+                            if (!first) {
+                                out.append(',');
+                            }
+                            first = false;
+                            addTerm(type, language, copyObject("value"));
+                        } while (nextMember(']'));
+                    }
+                    out.append(']');
+                } else {
+                    addTerm(type, language, copyObject("value"));
+                }
+            } while (nextMember('}'));
+        }
+        out.append('}');
+    }
+
+    private void addTerm(String type, String language, String text) {
+        if (text != null) {
+            terms.add(type);
+            terms.add(language);
+            terms.add(text);
+        }
+    }
+
+    /**
+     * Copy the sitelinks and remember the titles.
+     */
+    private void copySitelinks() {
+        skipWhitespace();
+        if (peek() != '{') {
+            copyValue(false);
+            return;
+        }
+        pos++;
+        out.append('{');
+        boolean empty = true;
+        if (!endOfContainer('}')) {
+            do {
+                final int keyStart = pos;
+                final int keyEnd = scanString();
+                skipWhitespace();
+                expect(':');
+                empty = appendKey(empty, keyStart, keyEnd);
+                final String title = copyObject("title");
+                if (title != null) {
+                    sitelinks.add(unescape(keyStart + 1, keyEnd - 1));
+                    sitelinks.add(title);
+                }
+            } while (nextMember('}'));
+        }
+        out.append('}');
+    }
+
+    /**
+     * Copy an object like <code>{"language":"en","value":"human"}</code>.
+     *
+     * @param key the key of the string to return
+     * @return the value of the key or <code>null</code>
+     */
+    private String copyObject(String key) {
+        String value = null;
+        skipWhitespace();
+        expect('{');
+        out.append('{');
+        boolean empty = true;
+        if (!endOfContainer('}')) {
+            do {
+                final int keyStart = pos;
+                final int keyEnd = scanString();
+                skipWhitespace();
+                expect(':');
+                empty = appendKey(empty, keyStart, keyEnd);
+                skipWhitespace();
+                if (isKey(keyStart, key) && peek() == '"') {
+                    final int valueStart = pos;
+                    final int valueEnd = scanString();
+                    out.append(in, valueStart, valueEnd);
+                    value = unescape(valueStart + 1, valueEnd - 1);
+                } else {
+                    copyValue(false);
+                }
+            } while (nextMember('}'));
+        }
+        out.append('}');
+        return value;
+    }
+
+    /**
+     * @param resolve replace references by label with the entity id
+     */
+    private void copyValue(boolean resolve) {
+        skipWhitespace();
+        final char c = peek();
+        if (c == '{' || c == '[') {
+            final char close = c == '{' ? '}' : ']';
+            pos++;
+            out.append(c);
+            if (!endOfContainer(close)) {
+                boolean first = true;
+                do {
+                    if (!first) {
+                        out.append(',');
+                    }
+                    first = false;
+                    if (c == '{') {
+                        final int keyStart = pos;
+                        final int keyEnd = scanString();
+                        skipWhitespace();
+                        expect(':');
+                        appendString(keyStart, keyEnd, resolve);
+                        out.append(':');
+                        // Plain strings and monolingual texts are data, not references
+                        final boolean data = isKey(keyStart, "value") || isKey(keyStart, "text");
+                        skipWhitespace();
+                        copyValue(resolve && !(data && peek() == '"'));
+                    } else {
+                        copyValue(resolve);
+                    }
+                } while (nextMember(close));
+            }
+            out.append(close);
+        } else if (c == '"') {
+            final int start = pos;
+            appendString(start, scanString(), resolve);
+        } else {
+            final int start = pos;
+            while (pos < in.length() && ",}] \t\r\n".indexOf(in.charAt(pos)) < 0) {
+                pos++;
+            }
+            if (start == pos) {
+                throw error("Expected a value");
+            }
+            out.append(in, start, pos);
+        }
+    }
+
+    /**
+     * Look ahead whether the object at the current position has a key.
+     */
+    private boolean hasKey(String key) {
+        final int start = pos;
+        boolean found = false;
+        skipWhitespace();
+        expect('{');
+        if (!endOfContainer('}')) {
+            do {
+                final int keyStart = pos;
+                scanString();
+                skipWhitespace();
+                expect(':');
+                if (isKey(keyStart, key)) {
+                    found = true;
+                    break;
+                }
+                skipValue();
+            } while (nextMember('}'));
+        }
+        pos = start;
+        return found;
+    }
+
+    private void skipValue() {
+        final int length = out.length();
+        copyValue(false);
+        out.setLength(length);
+    }
+
+    /**
+     * A statement id consists of the item id and a random version 4 UUID. The UUID only has to be unique within the
+     * item, so a fast non-cryptographic random generator is sufficient.
+     */
+    private void appendGuid() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final long high = (random.nextLong() & ~0xF000L) | 0x4000L;
+        final long low = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        appendHex(high >>> 32, 8);
+        out.append('-');
+        appendHex(high >>> 16, 4);
+        out.append('-');
+        appendHex(high, 4);
+        out.append('-');
+        appendHex(low >>> 48, 4);
+        out.append('-');
+        appendHex(low, 12);
+    }
+
+    private void appendHex(long value, int digits) {
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            out.append(HEX[(int) (value >>> shift) & 0xF]);
+        }
+    }
+
+    /**
+     * Append a string of the input, resolving a reference like <code>"P:instance of"</code> if requested.
+     */
+    private void appendString(int start, int end, boolean resolve) {
+        if (resolve && end - start > 4 && in.charAt(start + 2) == ':'
+                && (in.charAt(start + 1) == 'P' || in.charAt(start + 1) == 'Q')) {
+            out.append('"').append(labelIndex.resolve(in.charAt(start + 1), unescape(start + 3, end - 1))).append('"');
+        } else {
+            out.append(in, start, end);
+        }
+    }
+
+    private String unescape(int start, int end) {
+        final String raw = in.substring(start, end);
+        return raw.indexOf('\\') < 0 ? raw : (String) new JSONTokener('"' + raw + '"').nextValue();
+    }
+
+    private boolean appendKey(boolean empty, int keyStart, int keyEnd) {
+        if (!empty) {
+            out.append(',');
+        }
+        out.append(in, keyStart, keyEnd).append(':');
+        return false;
+    }
+
+    private void start(String json) {
+        in = json;
+        pos = 0;
+        out.setLength(0);
+        skipWhitespace();
+    }
+
+    /**
+     * @return the position after the closing quote
+     */
+    private int scanString() {
+        skipWhitespace();
+        expect('"');
+        while (pos < in.length()) {
+            final char c = in.charAt(pos++);
+            if (c == '\\') {
+                pos++;
+            } else if (c == '"') {
+                return pos;
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private boolean isKey(int keyStart, String key) {
+        final int end = keyStart + 1 + key.length();
+        return end < in.length() && in.regionMatches(keyStart + 1, key, 0, key.length()) && in.charAt(end) == '"';
+    }
+
+    private boolean isAnyKey(int keyStart, String[] keys) {
+        for (String key : keys) {
+            if (isKey(keyStart, key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Consume the closing character of an empty container.
+     */
+    private boolean endOfContainer(char close) {
+        skipWhitespace();
+        if (peek() == close) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Consume the separator after a member or element.
+     *
+     * @return <code>true</code> if another member follows
+     */
+    private boolean nextMember(char close) {
+        skipWhitespace();
+        final char c = peek();
+        pos++;
+        if (c == ',') {
+            skipWhitespace();
+            return true;
+        } else if (c == close) {
+            return false;
+        }
+        pos--;
+        throw error("Expected ',' or '" + close + "'");
+    }
+
+    private void skipWhitespace() {
+        while (pos < in.length() && Character.isWhitespace(in.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private char peek() {
+        if (pos >= in.length()) {
+            throw error("Unexpected end of JSON");
+        }
+        return in.charAt(pos);
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw error("Expected '" + c + "'");
+        }
+        pos++;
+    }
+
+    private JSONException error(String message) {
+        return new JSONException(message + " at character " + pos);
+    }
+}
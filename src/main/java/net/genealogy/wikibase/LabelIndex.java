@@ -0,0 +1,113 @@
+package net.genealogy.wikibase;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Locale;
+
+/**
+ * Finds properties and items by their label in one language without asking the database.
+ * <p>
+ * Only a 64 bit hash of every label is stored, together with the number of the entity. If several entities have the
+ * same label, the one with the lowest number is used, like {@link DatabaseInsert#findPropertyByLabel(Locale, String)}
+ * does. The index is safe for use by several writers.
+ */
+public class LabelIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(LabelIndex.class);
+    private final String language;
+    private final LongIntHashMap entities = new LongIntHashMap(1 << 16);
+
+    public LabelIndex(Locale language) {
+        this.language = language.toLanguageTag();
+    }
+
+    /**
+     * Read the labels of all properties and items from <code>wb_terms</code>.
+     */
+    public void load(Connection connection) throws SQLException {
+        final PreparedStatement pstmt = connection.prepareStatement(
+                "SELECT term_entity_type, term_full_entity_id, term_text FROM wb_terms" +
+                        " WHERE term_language=? AND term_type='label' AND term_entity_type IN ('item','property')",
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        // Let the MySQL driver stream the rows instead of reading the whole table into memory
+        pstmt.setFetchSize(Integer.MIN_VALUE);
+        pstmt.setString(1, language);
+        final ResultSet rs = pstmt.executeQuery();
+        int rows = 0;
+        while (rs.next()) {
+            final char type = "property".equals(rs.getString(1)) ? 'P' : 'Q';
+            put(type, rs.getString(3), Integer.parseInt(rs.getString(2).substring(1)));
+            rows++;
+        }
+        rs.close();
+        pstmt.close();
+        log.info("Loaded {} labels in language {}.", rows, language);
+    }
+
+    /**
+     * @return the language of the labels
+     */
+    public String getLanguage() {
+        return language;
+    }
+
+    /**
+     * Add the label of an entity.
+     *
+     * @param type   <code>P</code> for a property or <code>Q</code> for an item
+     * @param label  the label
+     * @param number the number of the entity
+     */
+    public synchronized void put(char type, String label, int number) {
+        final long key = hash(type, label);
+        final int previous = entities.get(key);
+        if (previous == 0 || number < previous) {
+            entities.put(key, number);
+        }
+    }
+
+    /**
+     * @param type  <code>P</code> for a property or <code>Q</code> for an item
+     * @param label the label
+     * @return the number of the entity or 0 if there is no entity with this label
+     */
+    public synchronized int find(char type, String label) {
+        return entities.get(hash(type, label));
+    }
+
+    /**
+     * Resolve a reference by label.
+     *
+     * @return the id of the entity, e.g. <code>P31</code>
+     * @throws IllegalArgumentException if there is no entity with this label
+     */
+    String resolve(char type, String label) {
+        final int number = find(type, label);
+        if (number == 0) {
+            throw new IllegalArgumentException("Unknown " + (type == 'P' ? "property" : "item") + " label: " + label);
+        }
+        return type + Integer.toString(number);
+    }
+
+    /**
+     * FNV-1a over the type and the characters of the label, followed by the finalizer of MurmurHash3.
+     */
+    private static long hash(char type, String label) {
+        long h = 0xcbf29ce484222325L;
+        h = (h ^ type) * 0x100000001b3L;
+        for (int i = 0; i < label.length(); i++) {
+            h = (h ^ label.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,62 @@
+package net.genealogy.wikibase;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts latencies in buckets of powers of two microseconds. A percentile is reported as the upper bound of its
+ * bucket, so it is at most twice the real value. The histogram is safe for use by several threads.
+ */
+class LatencyHistogram {
+
+    private static final int BUCKETS = 40;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    void record(long nanos) {
+        final long micros = Math.max(1, nanos / 1000);
+        final int bucket = Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    double getTotalMillis() {
+        return totalNanos.sum() / 1e6;
+    }
+
+    double getMaxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    /**
+     * @param percentile e.g. 0.99
+     * @return the upper bound of the bucket that contains the percentile, at most the maximum, 0 if nothing was
+     * recorded
+     */
+    double getPercentileMillis(double percentile) {
+        final long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        final long rank = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min((2L << i) / 1000.0, getMaxMillis());
+            }
+        }
+        return 0;
+    }
+}
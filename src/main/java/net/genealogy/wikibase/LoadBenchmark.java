@@ -0,0 +1,288 @@
+package net.genealogy.wikibase;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.ServiceLoader;
+
+/**
+ * Runs a matrix of load benchmarks and writes the results as CSV. The matrix is the cross product of JDBC drivers,
+ * connection properties, transaction sizes and {@link SyntheticItems item shapes}, all read from a properties file:
+ * <pre>
+ * url=jdbc:mysql://localhost:3306/my_wiki?characterEncoding=utf-8
+ * user=wikiuser
+ * password=sqlpass
+ * drivers=classpath,lib/mysql-connector-java-8.0.20.jar
+ * property.rewriteBatchedStatements=true,false
+ * property.useServerPrepStmts=true,false
+ * property.cachePrepStmts=true,false
+ * itemsPerTransaction=100,1000,10000
+ * batchSize=1000
+ * shapes=small,medium,claimHeavy
+ * items=10000
+ * warmupRuns=1
+ * runs=5
+ * </pre>
+ * <code>classpath</code> is the driver of this project, every jar is loaded with its own class loader. The database
+ * must be disposable: the rows of every run are deleted afterwards and <code>wb_id_counters</code> is reset, so each
+ * run starts from the same state.
+ * <p>
+ * Usage: <code>LoadBenchmark matrix.properties results.csv</code>
+ */
+public class LoadBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(LoadBenchmark.class);
+    /**
+     * The tables written for new items and the column that grows with every row.
+     */
+    private static final String[][] TABLES = {{"text", "old_id"}, {"page", "page_id"}, {"revision", "rev_id"},
+            {"comment", "comment_id"}, {"revision_comment_temp", "revcomment_rev"},
+            {"revision_actor_temp", "revactor_rev"}, {"content", "content_id"}, {"slots", "slot_revision_id"},
+            {"recentchanges", "rc_id"}};
+    private static final String CSV_HEADER = "driver,properties,items_per_transaction,batch_size,shape,items,runs,"
+            + "items_per_second_min,items_per_second_p50,items_per_second_p90,items_per_second_max,"
+            + "commit_p50_ms,commit_p99_ms,commit_max_ms";
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int items;
+    private final int warmupRuns;
+    private final int runs;
+    private final int batchSize;
+    /**
+     * The highest value of every column in {@link #TABLES} and the item counter before the first run.
+     */
+    private final Map<String, Long> baseline = new LinkedHashMap<>();
+
+    private LoadBenchmark(Properties matrix) {
+        url = matrix.getProperty("url");
+        user = matrix.getProperty("user");
+        password = matrix.getProperty("password");
+        items = Integer.parseInt(matrix.getProperty("items", "10000"));
+        warmupRuns = Integer.parseInt(matrix.getProperty("warmupRuns", "1"));
+        runs = Integer.parseInt(matrix.getProperty("runs", "5"));
+        batchSize = Integer.parseInt(matrix.getProperty("batchSize", "1000"));
+        if (runs < 1) {
+            throw new IllegalArgumentException("The matrix needs at least one measured run, runs=" + runs);
+        }
+        if (warmupRuns < 0) {
+            throw new IllegalArgumentException("warmupRuns must not be negative: " + warmupRuns);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: LoadBenchmark <matrix properties> <csv file>");
+            System.exit(1);
+        }
+        final Properties matrix = new Properties();
+        try (InputStream in = new FileInputStream(args[0])) {
+            matrix.load(in);
+        }
+        final LoadBenchmark benchmark = new LoadBenchmark(matrix);
+        final List<String> drivers = list(matrix, "drivers", "classpath");
+        final List<Properties> connectionProperties = connectionProperties(matrix);
+        final List<String> transactionSizes = list(matrix, "itemsPerTransaction", "1000");
+        final List<String> shapes = list(matrix, "shapes", String.join(",", SyntheticItems.SHAPES));
+
+        try (PrintWriter csv = new PrintWriter(Files.newBufferedWriter(new File(args[1]).toPath(), StandardCharsets.UTF_8))) {
+            csv.println(CSV_HEADER);
+            for (String driverName : drivers) {
+                final Driver driver = loadDriver(driverName, benchmark.url);
+                for (Properties properties : connectionProperties) {
+                    for (String transactionSize : transactionSizes) {
+                        for (String shape : shapes) {
+                            csv.println(benchmark.run(driverName, driver, properties, Integer.parseInt(transactionSize), shape));
+                            csv.flush();
+                        }
+                    }
+                }
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Run one cell of the matrix.
+     *
+     * @return the CSV line of the cell
+     */
+    private String run(String driverName, Driver driver, Properties properties, int itemsPerTransaction, String shape) throws Exception {
+        final String description = describe(properties);
+        log.info("{} {} with {} items per transaction and {} items", driverName, description, itemsPerTransaction, shape);
+        final WriteStatistics statistics = new WriteStatistics();
+        final double[] itemsPerSecond = new double[runs];
+        for (int run = -warmupRuns; run < runs; run++) {
+            final Connection connection = connect(driver, properties);
+            if (baseline.isEmpty()) {
+                readBaseline(connection);
+            }
+            final DatabaseInsert di = new DatabaseInsert(connection);
+            if (run >= 0) {
+                di.setStatistics(statistics);
+            }
+            final TransactionController transactions = new TransactionController(di, itemsPerTransaction, batchSize);
+            final long start = System.nanoTime();
+            transactions.start();
+            for (int i = 1; i <= items; i++) {
+                di.createItem(SyntheticItems.create(shape, i));
+                transactions.itemCreated();
+            }
+            transactions.finish();
+            final long nanos = System.nanoTime() - start;
+            di.destroy();
+            if (run >= 0) {
+                itemsPerSecond[run] = items * 1e9 / nanos;
+                log.info("Run {}: {} items/s", run + 1, (long) itemsPerSecond[run]);
+            }
+            reset(connect(driver, properties));
+        }
+
+        Arrays.sort(itemsPerSecond);
+        return String.join(",", new File(driverName).getName(), description, String.valueOf(itemsPerTransaction),
+                String.valueOf(Math.min(batchSize, itemsPerTransaction)), shape, String.valueOf(items),
+                String.valueOf(runs), format(itemsPerSecond[0]), format(percentile(itemsPerSecond, 0.5)),
+                format(percentile(itemsPerSecond, 0.9)), format(itemsPerSecond[runs - 1]),
+                format(statistics.getCommitLatencyP50Millis()), format(statistics.getCommitLatencyP99Millis()),
+                format(statistics.getCommitLatencyMaxMillis()));
+    }
+
+    private Connection connect(Driver driver, Properties properties) throws SQLException {
+        final Properties info = new Properties();
+        info.putAll(properties);
+        info.setProperty("user", user);
+        info.setProperty("password", password);
+        return driver.connect(url, info);
+    }
+
+    private void readBaseline(Connection connection) throws SQLException {
+        final Statement stmt = connection.createStatement();
+        for (String[] table : TABLES) {
+            final ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(" + table[1] + "), 0) FROM " + table[0]);
+            rs.next();
+            baseline.put(table[0], rs.getLong(1));
+            rs.close();
+        }
+        final ResultSet rs = stmt.executeQuery("SELECT id_value FROM wb_id_counters WHERE id_type='wikibase-item'");
+        baseline.put("wb_id_counters", rs.next() ? rs.getLong(1) : 0);
+        rs.close();
+        stmt.close();
+    }
+
+    /**
+     * Delete the rows of the last run and close the connection.
+     */
+    private void reset(Connection connection) throws SQLException {
+        for (String[] table : TABLES) {
+            final PreparedStatement pstmt = connection.prepareStatement("DELETE FROM " + table[0] + " WHERE " + table[1] + " > ?");
+            pstmt.setLong(1, baseline.get(table[0]));
+            pstmt.executeUpdate();
+            pstmt.close();
+        }
+        final PreparedStatement pstmt = connection.prepareStatement("UPDATE wb_id_counters SET id_value=? WHERE id_type='wikibase-item'");
+        pstmt.setLong(1, baseline.get("wb_id_counters"));
+        pstmt.executeUpdate();
+        pstmt.close();
+        connection.close();
+    }
+
+    /**
+     * @param name <code>classpath</code> or the path of a driver jar
+     */
+    private static Driver loadDriver(String name, String url) throws Exception {
+        if ("classpath".equals(name)) {
+            return DriverManager.getDriver(url);
+        }
+        // The parent must not see the classpath, otherwise the driver of this project would be found first
+        final URLClassLoader loader = new URLClassLoader(new URL[]{new File(name).toURI().toURL()},
+                ClassLoader.getSystemClassLoader().getParent());
+        for (Driver driver : ServiceLoader.load(Driver.class, loader)) {
+            if (driver.acceptsURL(url)) {
+                return driver;
+            }
+        }
+        throw new IllegalArgumentException("No driver for " + url + " in " + name);
+    }
+
+    /**
+     * @return the cross product of the values of all <code>property.*</code> keys
+     */
+    private static List<Properties> connectionProperties(Properties matrix) {
+        List<Properties> result = new ArrayList<>();
+        result.add(new Properties());
+        for (String key : matrix.stringPropertyNames()) {
+            if (!key.startsWith("property.")) {
+                continue;
+            }
+            final List<Properties> next = new ArrayList<>();
+            for (Properties properties : result) {
+                for (String value : list(matrix, key, "")) {
+                    final Properties combined = new Properties();
+                    combined.putAll(properties);
+                    combined.setProperty(key.substring("property.".length()), value);
+                    next.add(combined);
+                }
+            }
+            result = next;
+        }
+        return result;
+    }
+
+    private static List<String> list(Properties matrix, String key, String defaultValue) {
+        final List<String> values = new ArrayList<>();
+        for (String value : matrix.getProperty(key, defaultValue).split(",")) {
+            if (!value.trim().isEmpty()) {
+                values.add(value.trim());
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return the properties sorted by name like <code>a=1&amp;b=2</code>, which needs no quoting in CSV
+     */
+    private static String describe(Properties properties) {
+        final List<String> names = new ArrayList<>(properties.stringPropertyNames());
+        names.sort(null);
+        final StringBuilder sb = new StringBuilder();
+        for (String name : names) {
+            sb.append(sb.length() > 0 ? "&" : "").append(name).append('=').append(properties.getProperty(name));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The nearest-rank percentile of sorted values.
+     */
+    private static double percentile(double[] sorted, double percentile) {
+        final int rank = (int) Math.ceil(sorted.length * percentile);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.1f", value);
+    }
+}
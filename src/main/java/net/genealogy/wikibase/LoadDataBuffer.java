@@ -0,0 +1,234 @@
+package net.genealogy.wikibase;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+import java.util.Arrays;
+
+/**
+ * Collects the rows of one table as tab-separated data and sends them with <code>LOAD DATA LOCAL INFILE</code>. The
+ * data is passed to the driver as an input stream, so no file is written.
+ * <p>
+ * The connection needs the property <code>allowLoadLocalInfile=true</code> and the server <code>local_infile=ON</code>.
+ * <p>
+ * With <code>LOCAL</code> the server skips duplicate rows and stores invalid values as warnings instead of failing. So
+ * the number of loaded rows and the warnings are checked after each load, and any difference is an error unless
+ * {@link Duplicates#IGNORE} or {@link Duplicates#REPLACE} has been asked for.
+ */
+class LoadDataBuffer {
+
+    /**
+     * How rows with an existing unique key are handled.
+     */
+    enum Duplicates {
+        /**
+         * Fail the load.
+         */
+        ERROR(""),
+        /**
+         * Skip the new row.
+         */
+        IGNORE(" IGNORE"),
+        /**
+         * Replace the existing row.
+         */
+        REPLACE(" REPLACE");
+
+        private final String keyword;
+
+        Duplicates(String keyword) {
+            this.keyword = keyword;
+        }
+    }
+
+    /**
+     * The error code of MySQL and MariaDB for a duplicate key.
+     */
+    private static final int ER_DUP_ENTRY = 1062;
+    private static final byte[] NULL = {'\\', 'N'};
+    private final String table;
+    private final String columns;
+    private final Duplicates duplicates;
+    private byte[] buffer = new byte[1 << 16];
+    private int length = 0;
+    private int rows = 0;
+    private boolean firstField = true;
+
+    LoadDataBuffer(String table) {
+        this(table, null);
+    }
+
+    /**
+     * @param columns the columns in the order of the fields, e.g. <code>(a,b)</code>, or <code>null</code> for all
+     *                columns
+     */
+    LoadDataBuffer(String table, String columns) {
+        this(table, columns, Duplicates.ERROR);
+    }
+
+    LoadDataBuffer(String table, String columns, Duplicates duplicates) {
+        this.table = table;
+        this.columns = columns;
+        this.duplicates = duplicates;
+    }
+
+    LoadDataBuffer add(long value) {
+        separate();
+        final String s = Long.toString(value);
+        ensureCapacity(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buffer[length++] = (byte) s.charAt(i);
+        }
+        return this;
+    }
+
+    LoadDataBuffer add(double value) {
+        return add(Double.toString(value).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    LoadDataBuffer add(String value) {
+        return value == null ? addNull() : add(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    LoadDataBuffer add(byte[] value) {
+        separate();
+        ensureCapacity(value.length * 2);
+        for (byte b : value) {
+            switch (b) {
+                case '\\':
+                    buffer[length++] = '\\';
+                    buffer[length++] = '\\';
+                    break;
+                case '\t':
+                    buffer[length++] = '\\';
+                    buffer[length++] = 't';
+                    break;
+                case '\n':
+                    buffer[length++] = '\\';
+                    buffer[length++] = 'n';
+                    break;
+                case '\r':
+                    buffer[length++] = '\\';
+                    buffer[length++] = 'r';
+                    break;
+                case 0:
+                    buffer[length++] = '\\';
+                    buffer[length++] = '0';
+                    break;
+                default:
+                    buffer[length++] = b;
+            }
+        }
+        return this;
+    }
+
+    LoadDataBuffer addNull() {
+        separate();
+        ensureCapacity(NULL.length);
+        System.arraycopy(NULL, 0, buffer, length, NULL.length);
+        length += NULL.length;
+        return this;
+    }
+
+    void endRow() {
+        ensureCapacity(1);
+        buffer[length++] = '\n';
+        firstField = true;
+        rows++;
+    }
+
+    String getTable() {
+        return table;
+    }
+
+    /**
+     * @return the number of bytes collected since the last load
+     */
+    int getLength() {
+        return length;
+    }
+
+    /**
+     * Load all collected rows into the table and clear the buffer.
+     *
+     * @return the number of rows that the server reports as loaded
+     * @throws SQLException if rows have been skipped or values have been changed by the server
+     */
+    int load(Connection connection) throws SQLException {
+        if (rows == 0) {
+            return 0;
+        }
+        final int expected = rows;
+        final int loaded;
+        final Statement stmt = connection.createStatement();
+        try {
+            setLocalInfileInputStream(stmt, new ByteArrayInputStream(buffer, 0, length));
+            stmt.execute("LOAD DATA LOCAL INFILE '" + table + ".tsv'" + duplicates.keyword + " INTO TABLE " + table
+                    + " CHARACTER SET binary" + (columns == null ? "" : " " + columns));
+            loaded = stmt.getUpdateCount();
+            check(stmt.getWarnings(), expected, loaded);
+        } finally {
+            stmt.close();
+            length = 0;
+            rows = 0;
+        }
+        return loaded;
+    }
+
+    private void check(SQLWarning warning, int expected, int loaded) throws SQLException {
+        for (; warning != null; warning = warning.getNextWarning()) {
+            if (duplicates != Duplicates.ERROR && warning.getErrorCode() == ER_DUP_ENTRY) {
+                continue;
+            }
+            throw new SQLException("LOAD DATA into " + table + " caused a warning: " + warning.getMessage(),
+                    warning.getSQLState(), warning.getErrorCode(), warning);
+        }
+        // A replaced row counts twice, once for the deletion and once for the insert
+        final boolean complete;
+        switch (duplicates) {
+            case IGNORE:
+                complete = loaded <= expected;
+                break;
+            case REPLACE:
+                complete = loaded >= expected;
+                break;
+            default:
+                complete = loaded == expected;
+        }
+        if (!complete) {
+            throw new SQLException("LOAD DATA into " + table + " loaded " + loaded + " of " + expected + " rows");
+        }
+    }
+
+    /**
+     * Connector/J 5.1 and 8.0 as well as the MariaDB driver have this method, but in different classes.
+     */
+    private static void setLocalInfileInputStream(Statement stmt, InputStream in) throws SQLException {
+        try {
+            final Method method = stmt.getClass().getMethod("setLocalInfileInputStream", InputStream.class);
+            method.invoke(stmt, in);
+        } catch (ReflectiveOperationException e) {
+            throw new SQLException("The JDBC driver " + stmt.getClass().getName() + " cannot stream LOAD DATA LOCAL INFILE", e);
+        }
+    }
+
+    private void separate() {
+        if (firstField) {
+            firstField = false;
+        } else {
+            ensureCapacity(1);
+            buffer[length++] = '\t';
+        }
+    }
+
+    private void ensureCapacity(int additional) {
+        if (length + additional > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + additional));
+        }
+    }
+}
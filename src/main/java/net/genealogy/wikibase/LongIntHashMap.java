@@ -0,0 +1,99 @@
+package net.genealogy.wikibase;
+
+/**
+ * A hash map from <code>long</code> to <code>int</code> that stores its entries in two arrays. It needs about 16 bytes
+ * per entry instead of the 80 bytes of a <code>HashMap&lt;Long, Integer&gt;</code>.
+ * <p>
+ * The value 0 means "no entry", so it cannot be stored. The map is not thread-safe.
+ */
+class LongIntHashMap {
+
+    /**
+     * Marks a free slot. A key with this value is stored under a replacement key.
+     */
+    private static final long FREE = 0;
+    private static final long FREE_REPLACEMENT = 0x9E3779B97F4A7C15L;
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private int mask;
+
+    LongIntHashMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity * 3 / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * @return the value or 0 if the key does not exist
+     */
+    int get(long key) {
+        key = key == FREE ? FREE_REPLACEMENT : key;
+        int slot = slot(key);
+        while (keys[slot] != FREE) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return 0;
+    }
+
+    /**
+     * @return the previous value or 0 if the key did not exist
+     */
+    int put(long key, int value) {
+        if (value == 0) {
+            throw new IllegalArgumentException("The value 0 cannot be stored");
+        }
+        key = key == FREE ? FREE_REPLACEMENT : key;
+        int slot = slot(key);
+        while (keys[slot] != FREE) {
+            if (keys[slot] == key) {
+                final int previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > keys.length * 3 / 4) {
+            grow();
+        }
+        return 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int slot(long key) {
+        // The keys are usually hashes already, the multiplication spreads other keys
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    private void grow() {
+        final long[] oldKeys = keys;
+        final int[] oldValues = values;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                int slot = slot(oldKeys[i]);
+                while (keys[slot] != FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+}
@@ -0,0 +1,26 @@
+package net.genealogy.wikibase;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Formats the current time like MediaWiki, e.g. <code>20200514123000</code>. MediaWiki timestamps have a resolution
+ * of one second, so the formatted value is reused within a second.
+ * <p>
+ * An instance must not be shared between threads.
+ */
+class MediaWikiTimestamp {
+
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+    private long second;
+    private String timestamp;
+
+    String now() {
+        final long now = System.currentTimeMillis() / 1000;
+        if (now != second || timestamp == null) {
+            second = now;
+            timestamp = LocalDateTime.now().format(FORMAT);
+        }
+        return timestamp;
+    }
+}
@@ -0,0 +1,89 @@
+package net.genealogy.wikibase;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads the lines of an uncompressed UTF-8 file and knows the byte offset of the next line, so reading can continue
+ * at that offset later.
+ */
+class OffsetLineReader implements Closeable {
+
+    private final RandomAccessFile file;
+    private final InputStream in;
+    private final byte[] buffer = new byte[1 << 16];
+    private int position = 0;
+    private int limit = 0;
+    private byte[] line = new byte[1 << 12];
+    private long offset;
+
+    /**
+     * @param offset the offset of the first line to read, 0 for the start of the file
+     */
+    OffsetLineReader(File file, long offset) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        this.file.seek(offset);
+        this.in = Channels.newInputStream(this.file.getChannel());
+        this.offset = offset;
+    }
+
+    /**
+     * @return the next line without the line terminator or <code>null</code> at the end of the file
+     */
+    String readLine() throws IOException {
+        int length = 0;
+        while (true) {
+            if (position == limit) {
+                limit = in.read(buffer);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return length == 0 ? null : decode(length);
+                }
+            }
+            int end = position;
+            while (end < limit && buffer[end] != '\n') {
+                end++;
+            }
+            final int count = end - position;
+            if (length + count > line.length) {
+                line = Arrays.copyOf(line, Math.max(line.length * 2, length + count));
+            }
+            System.arraycopy(buffer, position, line, length, count);
+            length += count;
+            offset += count;
+            position = end;
+            if (end < limit) {
+                // Skip the line feed
+                position++;
+                offset++;
+                return decode(length);
+            }
+        }
+    }
+
+    private String decode(int length) {
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        return new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the offset of the line that is returned by the next call of {@link #readLine()}
+     */
+    long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,291 @@
+package net.genealogy.wikibase;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates items with several writers at the same time. Every writer has its own connection and transaction. The ids
+ * are handed out in disjoint blocks by a {@link SequentialIdAllocator} and <code>wb_id_counters</code> is written once
+ * at the end of the load. With {@link #setReserveIds(boolean)} the blocks are reserved in the database instead, so the
+ * wiki can be edited during the load.
+ */
+public class ParallelInsert {
+
+    private static final Logger log = LoggerFactory.getLogger(ParallelInsert.class);
+    /**
+     * Marks the end of the input for a writer. Compared by identity.
+     */
+    private static final String END_OF_INPUT = new String("");
+
+    private final ConnectionFactory connectionFactory;
+    private final int numberOfWriters;
+    private final int itemsPerTransaction;
+    private int batchSize = 1;
+    private int idBlockSize = 1000;
+    private boolean adaptive = false;
+    private LabelIndex labelIndex;
+    private TermStore termStore;
+    private DuplicateIndex duplicateIndex;
+    private IdJournal idJournal;
+    private WriteStatistics statistics = new WriteStatistics();
+    private TurtleExport turtleExport;
+    private boolean recentChanges = true;
+    private boolean compressText = false;
+    private boolean reserveIds = false;
+
+    /**
+     * Opens a new connection for every writer.
+     */
+    public interface ConnectionFactory {
+        Connection open() throws SQLException;
+    }
+
+    public ParallelInsert(ConnectionFactory connectionFactory, int numberOfWriters, int itemsPerTransaction) {
+        this.connectionFactory = connectionFactory;
+        this.numberOfWriters = numberOfWriters;
+        this.itemsPerTransaction = itemsPerTransaction;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setIdBlockSize(int idBlockSize) {
+        this.idBlockSize = idBlockSize;
+    }
+
+    /**
+     * Let every writer adapt its transaction and batch size to the throughput, starting with the configured values.
+     *
+     * @see TransactionController
+     */
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * Resolve references by label with an index that is shared by all writers.
+     */
+    public void setLabelIndex(LabelIndex labelIndex) {
+        this.labelIndex = labelIndex;
+    }
+
+    /**
+     * Write the term store with a cache that is shared by all writers.
+     */
+    public void setTermStore(TermStore termStore) {
+        this.termStore = termStore;
+    }
+
+    /**
+     * Skip items that exist already with an index that is shared by all writers.
+     */
+    public void setDuplicateIndex(DuplicateIndex duplicateIndex) {
+        this.duplicateIndex = duplicateIndex;
+    }
+
+    /**
+     * Record the id ranges of all writers in one journal.
+     */
+    public void setIdJournal(IdJournal idJournal) {
+        this.idJournal = idJournal;
+    }
+
+    /**
+     * Write the items of all writers to one export.
+     */
+    public void setTurtleExport(TurtleExport turtleExport) {
+        this.turtleExport = turtleExport;
+    }
+
+    /**
+     * @see DatabaseInsert#setRecentChanges(boolean)
+     */
+    public void setRecentChanges(boolean recentChanges) {
+        this.recentChanges = recentChanges;
+    }
+
+    /**
+     * @see DatabaseInsert#setCompressText(boolean)
+     */
+    public void setCompressText(boolean compressText) {
+        this.compressText = compressText;
+    }
+
+    /**
+     * Reserve the id blocks in the database with a {@link DatabaseIdAllocator} instead of counting them in memory. This
+     * cannot be combined with a {@link TermStore}, whose ids are still counted in memory.
+     */
+    public void setReserveIds(boolean reserveIds) {
+        this.reserveIds = reserveIds;
+    }
+
+    /**
+     * Record the statements of all writers in the given statistics.
+     */
+    public void setStatistics(WriteStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    public WriteStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Create all items of the input.
+     *
+     * @param items the JSON data of the items
+     * @return the number of created items
+     */
+    public int insert(Iterator<String> items) throws Exception {
+        if (reserveIds && termStore != null) {
+            throw new IllegalStateException("Reserved ids cannot be combined with a term store, which assumes that no other process writes to it");
+        }
+        final Connection coordinator = connectionFactory.open();
+        final IdBlockAllocator allocator = reserveIds ? new DatabaseIdAllocator(coordinator) : SequentialIdAllocator.fromDatabase(coordinator);
+        final BlockingQueue<String> queue = new ArrayBlockingQueue<>(numberOfWriters * Math.max(batchSize, 100));
+        final AtomicInteger created = new AtomicInteger();
+
+        final List<DatabaseInsert> writers = new ArrayList<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(numberOfWriters);
+        final List<Future<?>> results = new ArrayList<>();
+        Exception failure = null;
+        try {
+            for (int i = 0; i < numberOfWriters; i++) {
+                final DatabaseInsert writer = new DatabaseInsert(connectionFactory.open(), allocator, idBlockSize);
+                writer.setStatistics(statistics);
+                writer.setTurtleExport(turtleExport);
+                writer.setRecentChanges(recentChanges);
+                writer.setCompressText(compressText);
+                if (labelIndex != null) {
+                    writer.setLabelIndex(labelIndex);
+                }
+                if (termStore != null) {
+                    writer.setTermStore(termStore);
+                }
+                if (duplicateIndex != null) {
+                    writer.setDuplicateIndex(duplicateIndex);
+                }
+                writer.setIdJournal(idJournal);
+                writers.add(writer);
+                results.add(executor.submit(() -> {
+                    write(writer, queue, created);
+                    return null;
+                }));
+            }
+
+            while (items.hasNext()) {
+                final String item = items.next();
+                while (!queue.offer(item, 1, TimeUnit.SECONDS)) {
+                    checkWriters(results);
+                }
+            }
+            for (int i = 0; i < numberOfWriters; i++) {
+                while (!queue.offer(END_OF_INPUT, 1, TimeUnit.SECONDS)) {
+                    checkWriters(results);
+                }
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (Exception e) {
+            failure = e;
+            throw e;
+        } finally {
+            executor.shutdownNow();
+            boolean terminated;
+            try {
+                terminated = executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                terminated = false;
+            }
+
+            // Some writers may have committed their items even if the load failed. Reserved ids are counted already.
+            SQLException counterFailure = null;
+            if (allocator instanceof SequentialIdAllocator) {
+                try {
+                    final SequentialIdAllocator sequential = (SequentialIdAllocator) allocator;
+                    final PreparedStatement pstmt = coordinator.prepareStatement("UPDATE wb_id_counters SET id_value=GREATEST(id_value, ?) WHERE id_type='wikibase-item'");
+                    pstmt.setInt(1, sequential.getLastQNumber());
+                    pstmt.executeUpdate();
+                    pstmt.close();
+                    if (sequential.getLastPropertyNumber() > 0) {
+                        final PreparedStatement properties = coordinator.prepareStatement("INSERT INTO wb_id_counters (id_type, id_value) VALUES('wikibase-property', ?)"
+                                + " ON DUPLICATE KEY UPDATE id_value=GREATEST(id_value, VALUES(id_value))");
+                        properties.setInt(1, sequential.getLastPropertyNumber());
+                        properties.executeUpdate();
+                        properties.close();
+                    }
+                } catch (SQLException e) {
+                    counterFailure = e;
+                    if (failure != null) {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+            try {
+                coordinator.close();
+            } catch (SQLException e) {
+                log.warn("Could not close the coordinator connection", e);
+            }
+
+            if (terminated) {
+                for (DatabaseInsert writer : writers) {
+                    try {
+                        writer.destroy();
+                    } catch (Exception e) {
+                        log.warn("Could not close writer", e);
+                    }
+                }
+            } else {
+                // A writer that is still running may use its connection, so it must not be closed under it
+                log.warn("The writers did not stop within a minute, their connections are left open");
+            }
+            if (failure == null && counterFailure != null) {
+                throw counterFailure;
+            }
+        }
+        log.info("Created {} items with {} writers.", created.get(), numberOfWriters);
+        return created.get();
+    }
+
+    private void write(DatabaseInsert writer, BlockingQueue<String> queue, AtomicInteger created) throws SQLException, InterruptedException {
+        final TransactionController transactions = new TransactionController(writer, itemsPerTransaction, batchSize);
+        transactions.setAdaptive(adaptive);
+        transactions.start();
+        String item = queue.take();
+        while (item != END_OF_INPUT) {
+            writer.createItem(item);
+            created.incrementAndGet();
+            transactions.itemCreated();
+            item = queue.take();
+        }
+        transactions.finish();
+    }
+
+    /**
+     * Stop feeding the queue as soon as one writer failed.
+     */
+    private void checkWriters(List<Future<?>> results) throws Exception {
+        for (Future<?> result : results) {
+            if (result.isDone()) {
+                result.get();
+            }
+        }
+    }
+}
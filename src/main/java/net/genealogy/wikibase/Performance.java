@@ -1,60 +1,50 @@
 package net.genealogy.wikibase;
 
-import com.fasterxml.jackson.databind.exc.ValueInstantiationException;
 import lombok.RequiredArgsConstructor;
 import org.apache.commons.lang3.time.StopWatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.wikidata.wdtk.datamodel.helpers.PropertyDocumentBuilder;
-import org.wikidata.wdtk.datamodel.implementation.DatatypeIdImpl;
-import org.wikidata.wdtk.datamodel.interfaces.PropertyDocument;
-import org.wikidata.wdtk.datamodel.interfaces.PropertyIdValue;
-import org.wikidata.wdtk.wikibaseapi.BasicApiConnection;
-import org.wikidata.wdtk.wikibaseapi.LoginFailedException;
-import org.wikidata.wdtk.wikibaseapi.WikibaseDataEditor;
-import org.wikidata.wdtk.wikibaseapi.apierrors.MediaWikiApiErrorException;
-
-import java.io.IOException;
+
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.util.Collections;
+import java.util.Iterator;
 import java.util.Locale;
 import java.util.concurrent.TimeUnit;
 
-import static org.wikidata.wdtk.datamodel.implementation.DatatypeIdImpl.JSON_DT_EXTERNAL_ID;
-import static org.wikidata.wdtk.datamodel.implementation.DatatypeIdImpl.JSON_DT_ITEM;
-
 @RequiredArgsConstructor
 public class Performance {
-    private final static String siteIri = "http://www.test.wikidata.org/entity/";
+    private final static String jdbcUrl = "jdbc:mysql://localhost:3306/my_wiki?characterEncoding=utf-8&rewriteBatchedStatements=true&allowLoadLocalInfile=true";
 
     private final DatabaseInsert databaseInsert;
     private final Logger log = LoggerFactory.getLogger(Performance.class);
     private int propertyInstanceOf;
     private int itemTestEntry;
     private int propertyMyProperty;
-    private WikibaseDataEditor wbde;
 
     public static void main(String[] args) throws Exception {
-        Connection connection = DriverManager.getConnection(
-                "jdbc:mysql://localhost:3306/my_wiki?characterEncoding=utf-8",
-                "wikiuser",
-                "sqlpass");
+        Connection connection = openConnection();
 
         DatabaseInsert di = new DatabaseInsert(connection);
+        di.getStatistics().register("Performance");
         Performance self = new Performance(di);
-
-        BasicApiConnection wikibaseConnection = new BasicApiConnection("http://localhost:8181/w/api.php");
-        wikibaseConnection.login("WikibaseAdmin", "WikibaseDockerAdminPass");
-        self.wbde = new WikibaseDataEditor(wikibaseConnection, siteIri);
         self.createPropertiesAndItems();
         self.runWithoutTransaction(100);
         self.runWithTransaction(10000);
+        self.runWithBatches(10000, 1000);
+        self.runWithLoadData(100000, 10000);
+        self.runAdaptive(100000);
+        self.runParallel(100000, 4);
         di.destroy();
+        di.getStatistics().report();
+        di.getStatistics().close();
         System.exit(0);
     }
 
+    private static Connection openConnection() throws SQLException {
+        return DriverManager.getConnection(jdbcUrl, "wikiuser", "sqlpass");
+    }
+
     private void runWithoutTransaction(final int numberOfItems) throws SQLException {
         final StopWatch stopWatch = new StopWatch();
         log.info("Creating {} items without a transaction...", numberOfItems);
@@ -64,8 +54,7 @@ public class Performance {
             databaseInsert.createItem(json);
         }
         stopWatch.stop();
-        log.info("Created {} items in {} s.", numberOfItems, stopWatch.getTime(TimeUnit.SECONDS));
-        log.info("Speed is {} items/minute.", (int) (numberOfItems * 60 / (double) stopWatch.getTime(TimeUnit.SECONDS)));
+        logSpeed(numberOfItems, stopWatch);
     }
 
     private void runWithTransaction(final int numberOfItems) throws SQLException {
@@ -81,12 +70,106 @@ public class Performance {
 
         databaseInsert.commit();
         stopWatch.stop();
-        log.info("Created {} items in {} s.", numberOfItems, stopWatch.getTime(TimeUnit.SECONDS));
-        log.info("Speed is {} items/minute.", (int) (numberOfItems * 60 / (double) stopWatch.getTime(TimeUnit.SECONDS)));
+        logSpeed(numberOfItems, stopWatch);
 
     }
 
 
+    private void runWithBatches(final int numberOfItems, final int batchSize) throws SQLException {
+        final StopWatch stopWatch = new StopWatch();
+        log.info("Creating {} items with a transaction and batches of {} items...", numberOfItems, batchSize);
+        stopWatch.start();
+        databaseInsert.startTransaction();
+        databaseInsert.setBatchSize(batchSize);
+
+        for (int i = 1; i < numberOfItems; i++) {
+            final String json = createJson(i);
+            databaseInsert.createItem(json);
+        }
+
+        databaseInsert.commit();
+        databaseInsert.setBatchSize(1);
+        stopWatch.stop();
+        logSpeed(numberOfItems, stopWatch);
+    }
+
+    private void runWithLoadData(final int numberOfItems, final int batchSize) throws SQLException {
+        final StopWatch stopWatch = new StopWatch();
+        log.info("Creating {} items with LOAD DATA and batches of {} items...", numberOfItems, batchSize);
+        stopWatch.start();
+        databaseInsert.startTransaction();
+        databaseInsert.setBatchSize(batchSize);
+        databaseInsert.setLoadData(true);
+
+        for (int i = 1; i < numberOfItems; i++) {
+            final String json = createJson(i);
+            databaseInsert.createItem(json);
+        }
+
+        databaseInsert.commit();
+        databaseInsert.setLoadData(false);
+        databaseInsert.setBatchSize(1);
+        stopWatch.stop();
+        logSpeed(numberOfItems, stopWatch);
+    }
+
+    private void runAdaptive(final int numberOfItems) throws SQLException {
+        final StopWatch stopWatch = new StopWatch();
+        log.info("Creating {} items with adaptive transaction and batch sizes...", numberOfItems);
+        stopWatch.start();
+        final TransactionController transactions = new TransactionController(databaseInsert, 100, 10);
+        transactions.setAdaptive(true);
+        transactions.setWindowMillis(1000);
+        transactions.start();
+
+        for (int i = 1; i < numberOfItems; i++) {
+            final String json = createJson(i);
+            databaseInsert.createItem(json);
+            transactions.itemCreated();
+        }
+
+        transactions.finish();
+        databaseInsert.setBatchSize(1);
+        stopWatch.stop();
+        log.info("Ended with {} items per transaction and batches of {}.", transactions.getItemsPerTransaction(), transactions.getBatchSize());
+        logSpeed(numberOfItems, stopWatch);
+    }
+
+    private void runParallel(final int numberOfItems, final int numberOfWriters) throws Exception {
+        final StopWatch stopWatch = new StopWatch();
+        log.info("Creating {} items with {} writers...", numberOfItems, numberOfWriters);
+        final ParallelInsert parallelInsert = new ParallelInsert(Performance::openConnection, numberOfWriters, 10000);
+        parallelInsert.setBatchSize(1000);
+        parallelInsert.getStatistics().showProgress("Parallel", numberOfItems - 1);
+        stopWatch.start();
+        parallelInsert.insert(new Iterator<String>() {
+            private int i = 1;
+
+            @Override
+            public boolean hasNext() {
+                return i < numberOfItems;
+            }
+
+            @Override
+            public String next() {
+                return createJson(i++);
+            }
+        });
+        stopWatch.stop();
+        parallelInsert.getStatistics().close();
+        parallelInsert.getStatistics().report();
+        logSpeed(numberOfItems, stopWatch);
+    }
+
+    /**
+     * The speed is calculated from milliseconds, so short runs do not divide by zero.
+     */
+    private void logSpeed(final int numberOfItems, final StopWatch stopWatch) {
+        final long millis = Math.max(1, stopWatch.getTime(TimeUnit.MILLISECONDS));
+        log.info("Created {} items in {} s.", numberOfItems, millis / 1000.0);
+        log.info("Speed is {} items/minute.", (int) (numberOfItems * 60000 / (double) millis));
+    }
+
     private String createJson(int i) {
         return "{\"type\": \"item\",\"labels\": {\"en\": {\"language\": \"en\",\"value\": \"Test " + i + "\"}}," +
                 "\"descriptions\": {\"en\": {\"language\": \"en\",\"value\": \"Test " + i + "\"}}," +
@@ -98,36 +181,24 @@ public class Performance {
                 "}";
     }
 
-    private int createPropertyIfNecessary(WikibaseDataEditor wbde, String englishLabel, String datatype) throws SQLException, IOException, MediaWikiApiErrorException {
-        int propertyId = databaseInsert.findPropertyByLabel(Locale.ENGLISH, englishLabel);
-        if (propertyId == 0) {
-            final PropertyDocument newProperty =
-                    PropertyDocumentBuilder.forPropertyIdAndDatatype(PropertyIdValue.NULL, DatatypeIdImpl.getDatatypeIriFromJsonDatatype(datatype))
-                            .withLabel(englishLabel, "en")
-                            .build();
-
-            try {
-                wbde.createPropertyDocument(newProperty,
-                        "property for performance test",
-                        Collections.emptyList());
-            } catch (ValueInstantiationException ignore) {
-                // The response cannot be parsed correctly
-            }
+    private int createPropertyIfNecessary(String englishLabel, String datatype) throws SQLException {
+        final int propertyId = databaseInsert.findPropertyByLabel(Locale.ENGLISH, englishLabel);
+        if (propertyId != 0) {
+            return propertyId;
         }
-        return databaseInsert.findPropertyByLabel(Locale.ENGLISH, englishLabel);
+        final String json = "{\"type\":\"property\",\"datatype\":\"" + datatype + "\"," +
+                "\"labels\":{\"en\":{\"language\":\"en\",\"value\":\"" + englishLabel + "\"}}," +
+                "\"descriptions\":{},\"aliases\":{},\"claims\":{}}";
+        return Integer.parseInt(databaseInsert.createProperty(json).substring(1));
     }
 
-    private void createPropertiesAndItems() throws SQLException, LoginFailedException, IOException, MediaWikiApiErrorException {
-
-
-        propertyInstanceOf = createPropertyIfNecessary(wbde, "instance of", JSON_DT_ITEM);
+    private void createPropertiesAndItems() throws SQLException {
+        propertyInstanceOf = createPropertyIfNecessary("instance of", "wikibase-item");
         log.debug("Using P" + propertyInstanceOf + " as the instance-of property.");
 
-        propertyMyProperty = createPropertyIfNecessary(wbde, "my property", JSON_DT_EXTERNAL_ID);
+        propertyMyProperty = createPropertyIfNecessary("my property", "external-id");
         log.debug("Using P" + propertyMyProperty + " as the data property.");
 
-        databaseInsert.afterPropertiesSet();
-
         itemTestEntry = databaseInsert.findItemByLabel(Locale.ENGLISH, "test entry");
         if (itemTestEntry == 0) {
             String json = "{\"type\":\"item\",\"labels\":{\"de\":{\"language\":\"en\",\"value\":\"test entry\"}},\"descriptions\":{\"en\":{\"language\":\"en\",\"value\":\"type\"}},\"aliases\":[]}";
@@ -0,0 +1,132 @@
+package net.genealogy.wikibase;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Imports the items of an uncompressed Wikidata JSON dump, or of a file with one item per line, and commits every
+ * few thousand items. After every commit the position in the input and the last ids are written to a checkpoint file.
+ * If the import is started again, it continues after the last checkpoint without reading the input again or probing
+ * the database for free ids. The used id ranges of all runs are recorded in <code>dump.json.ids</code> for
+ * {@link RollbackLoad}.
+ * <p>
+ * Usage: <code>ResumableImport dump.json jdbc-url user password [items per commit]</code>
+ */
+public class ResumableImport {
+
+    private static final Logger log = LoggerFactory.getLogger(ResumableImport.class);
+    private static final int ITEMS_PER_COMMIT = 10000;
+    private static final int BATCH_SIZE = 1000;
+
+    private final Connection connection;
+    private final CheckpointFile checkpointFile;
+    private final File idJournalFile;
+    private final int itemsPerCommit;
+    private Checkpoint checkpoint;
+    private long items;
+
+    /**
+     * @param idJournalFile the journal of the used id ranges, continued if it exists
+     */
+    public ResumableImport(Connection connection, File checkpointFile, File idJournalFile, int itemsPerCommit) {
+        this.connection = connection;
+        this.checkpointFile = new CheckpointFile(checkpointFile);
+        this.idJournalFile = idJournalFile;
+        this.itemsPerCommit = itemsPerCommit;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 4 && args.length != 5) {
+            System.err.println("Usage: ResumableImport <dump file> <jdbc url> <user> <password> [items per commit]");
+            System.exit(1);
+        }
+        final File dump = new File(args[0]);
+        final ResumableImport resumableImport = new ResumableImport(DriverManager.getConnection(args[1], args[2], args[3]),
+                new File(dump.getPath() + ".checkpoint"), new File(dump.getPath() + ".ids"), args.length == 5 ? Integer.parseInt(args[4]) : ITEMS_PER_COMMIT);
+        resumableImport.run(dump);
+        System.exit(0);
+    }
+
+    /**
+     * Import the file, starting at the last checkpoint if there is one.
+     *
+     * @return the number of items imported by this run
+     */
+    public long run(File input) throws Exception {
+        if (input.getName().endsWith(".gz") || input.getName().endsWith(".bz2")) {
+            throw new IllegalArgumentException("A compressed dump cannot be resumed at an offset: " + input);
+        }
+        checkpoint = checkpointFile.read(connection);
+        final SequentialIdAllocator allocator;
+        if (checkpoint == null) {
+            allocator = SequentialIdAllocator.fromDatabase(connection);
+            items = 0;
+        } else {
+            allocator = checkpoint.createIdAllocator();
+            items = checkpoint.getItems();
+            log.info("Continuing after {} items at offset {} with Q{}.", checkpoint.getItems(), checkpoint.getOffset(),
+                    checkpoint.getLastQNumber() + 1);
+        }
+
+        // The ids left in a block at the end of the run are never used
+        final DatabaseInsert di = new DatabaseInsert(connection, allocator, itemsPerCommit);
+        final IdJournal idJournal = new IdJournal(idJournalFile);
+        di.setIdJournal(idJournal);
+        final WriteStatistics statistics = di.getStatistics();
+        statistics.startReporting(1, TimeUnit.MINUTES);
+        final PreparedStatement pstmtUpdateWbIdCounters = connection.prepareStatement(
+                "UPDATE wb_id_counters SET id_value=GREATEST(id_value, ?) WHERE id_type='wikibase-item'");
+        final ItemSerializer serializer = new ItemSerializer();
+        long created = 0;
+        try (OffsetLineReader reader = new OffsetLineReader(input, checkpoint == null ? 0 : checkpoint.getOffset())) {
+            di.startTransaction();
+            di.setBatchSize(BATCH_SIZE);
+            int itemsInTransaction = 0;
+            String line = reader.readLine();
+            while (line != null) {
+                final String item = DumpReader.parse(serializer, line);
+                if (item != null) {
+                    di.createItem(item);
+                    items++;
+                    created++;
+                    itemsInTransaction++;
+                }
+                if (itemsInTransaction == itemsPerCommit) {
+                    commit(di, pstmtUpdateWbIdCounters, reader.getOffset());
+                    itemsInTransaction = 0;
+                }
+                line = reader.readLine();
+            }
+            if (itemsInTransaction > 0) {
+                commit(di, pstmtUpdateWbIdCounters, reader.getOffset());
+            }
+        } finally {
+            pstmtUpdateWbIdCounters.close();
+            di.destroy();
+            idJournal.close();
+            statistics.close();
+        }
+        log.info("Imported {} items, {} in this run.", items, created);
+        return created;
+    }
+
+    /**
+     * Commit the items and the id counter, with the checkpoint pending until the commit succeeded.
+     */
+    private void commit(DatabaseInsert di, PreparedStatement pstmtUpdateWbIdCounters, long offset) throws Exception {
+        di.flush();
+        final Checkpoint next = di.checkpoint(offset, items);
+        pstmtUpdateWbIdCounters.setInt(1, next.getLastQNumber());
+        pstmtUpdateWbIdCounters.executeUpdate();
+        checkpointFile.prepare(next);
+        di.commit();
+        checkpointFile.commit(next);
+        checkpoint = next;
+    }
+}
@@ -0,0 +1,259 @@
+package net.genealogy.wikibase;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deletes the rows of a load with the id ranges of its {@link IdJournal}. The rows are deleted with range deletes of
+ * a few thousand ids each, every one in its own transaction, so a rollback that is interrupted can simply be started
+ * again. Pages that were edited by the load get their previous revision back. <code>wb_id_counters</code> is set back
+ * if no other items have been created since the load. Rows of the term store that may be shared with other items, i.e.
+ * <code>wbt_text</code>, <code>wbt_text_in_lang</code> and <code>wbt_term_in_lang</code>, are kept. Properties that were
+ * created by the load are found by their pages and lose their rows in <code>wb_property_info</code>,
+ * <code>wb_terms</code> and <code>wbt_property_terms</code> as well.
+ * <p>
+ * Usage: <code>RollbackLoad journal jdbc-url user password</code>
+ * <p>
+ * The journal is renamed to <code>journal.rolledback</code> afterwards.
+ */
+public class RollbackLoad {
+
+    private static final Logger log = LoggerFactory.getLogger(RollbackLoad.class);
+    private static final int IDS_PER_DELETE = 10000;
+    /**
+     * The tables and columns that hold revision ids, which are the text ids of the journal. <code>text</code> comes
+     * last, so a revision is never left without its text.
+     */
+    private static final String[][] REVISION_TABLES = {{"recentchanges", "rc_this_oldid"}, {"slots", "slot_revision_id"},
+            {"revision_actor_temp", "revactor_rev"}, {"revision_comment_temp", "revcomment_rev"}, {"revision", "rev_id"},
+            {"text", "old_id"}};
+    private static final String[][] ITEM_TABLES = {{"wbt_item_terms", "wbit_item_id"}, {"wb_items_per_site", "ips_item_id"}};
+
+    private final Connection connection;
+
+    /**
+     * @param connection a connection in auto-commit mode
+     */
+    public RollbackLoad(Connection connection) {
+        this.connection = connection;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 4) {
+            System.err.println("Usage: RollbackLoad <journal> <jdbc url> <user> <password>");
+            System.exit(1);
+        }
+        final File journal = new File(args[0]);
+        final RollbackLoad rollback = new RollbackLoad(DriverManager.getConnection(args[1], args[2], args[3]));
+        rollback.rollback(IdJournal.read(journal));
+        // The ids may be used again by the next load, which must not be rolled back together with this one
+        Files.move(journal.toPath(), new File(journal.getPath() + ".rolledback").toPath(), StandardCopyOption.REPLACE_EXISTING);
+        System.exit(0);
+    }
+
+    /**
+     * Delete all rows in the ranges of the journal.
+     */
+    public void rollback(List<IdRanges> journal) throws SQLException {
+        final List<long[]> qNumbers = IdRanges.merge(journal, IdRanges::getFirstQNumber, IdRanges::getLastQNumber);
+        final List<long[]> revisions = IdRanges.merge(journal, IdRanges::getFirstTextId, IdRanges::getLastTextId);
+        final List<long[]> pages = IdRanges.merge(journal, IdRanges::getFirstPageId, IdRanges::getLastPageId);
+        final long start = System.currentTimeMillis();
+
+        // Restore the edited pages first, so a rollback that is started again still finds their revisions
+        restorePages(findEditedPages(revisions, pages));
+        // The properties are found by their pages, which are deleted last
+        final List<Integer> properties = findProperties(pages);
+        deleteProperties(properties);
+
+        for (String[] table : REVISION_TABLES) {
+            delete(table[0], table[1], revisions);
+        }
+        delete("comment", "comment_id", IdRanges.merge(journal, IdRanges::getFirstCommentId, IdRanges::getLastCommentId));
+        delete("content", "content_id", IdRanges.merge(journal, IdRanges::getFirstContentId, IdRanges::getLastContentId));
+        for (String[] table : ITEM_TABLES) {
+            delete(table[0], table[1], qNumbers);
+        }
+        delete("page", "page_id", pages);
+        long allocated = 0;
+        for (IdRanges entry : journal) {
+            allocated = Math.max(allocated, entry.getLastAllocatedQNumber());
+        }
+        resetIdCounter(qNumbers, allocated);
+        resetPropertyCounter(properties);
+        log.info("Rolled back {} ranges in {} s.", journal.size(), (System.currentTimeMillis() - start) / 1000);
+    }
+
+    private void delete(String table, String column, List<long[]> ranges) throws SQLException {
+        final PreparedStatement pstmt = connection.prepareStatement("DELETE FROM " + table + " WHERE " + column + " BETWEEN ? AND ?");
+        long rows = 0;
+        for (long[] range : ranges) {
+            for (long first = range[0]; first <= range[1]; first += IDS_PER_DELETE) {
+                pstmt.setLong(1, first);
+                pstmt.setLong(2, Math.min(range[1], first + IDS_PER_DELETE - 1));
+                rows += pstmt.executeUpdate();
+            }
+        }
+        pstmt.close();
+        log.info("Deleted {} rows of {}.", rows, table);
+    }
+
+    /**
+     * @return the revision that was the latest before the load by page, for pages that are not deleted
+     */
+    private Map<Long, long[]> findEditedPages(List<long[]> revisions, List<long[]> deletedPages) throws SQLException {
+        final Map<Long, long[]> edited = new HashMap<>();
+        final PreparedStatement pstmt = connection.prepareStatement(
+                "SELECT rev_page, rev_id, rev_parent_id FROM revision WHERE rev_id BETWEEN ? AND ? AND rev_parent_id<>0");
+        for (long[] range : revisions) {
+            for (long first = range[0]; first <= range[1]; first += IDS_PER_DELETE) {
+                pstmt.setLong(1, first);
+                pstmt.setLong(2, Math.min(range[1], first + IDS_PER_DELETE - 1));
+                final ResultSet rs = pstmt.executeQuery();
+                while (rs.next()) {
+                    final long page = rs.getLong(1);
+                    final long[] earliest = edited.get(page);
+                    // The parent of the first edit of the load is the revision before the load
+                    if (earliest == null || rs.getLong(2) < earliest[0]) {
+                        edited.put(page, new long[]{rs.getLong(2), rs.getLong(3)});
+                    }
+                }
+                rs.close();
+            }
+        }
+        pstmt.close();
+        edited.keySet().removeIf(page -> contains(deletedPages, page));
+        return edited;
+    }
+
+    /**
+     * @return the numbers of the properties whose pages are in the ranges, in ascending order
+     */
+    private List<Integer> findProperties(List<long[]> pages) throws SQLException {
+        final List<Integer> properties = new ArrayList<>();
+        final PreparedStatement pstmt = connection.prepareStatement(
+                "SELECT page_title FROM page WHERE page_namespace=122 AND page_id BETWEEN ? AND ?");
+        for (long[] range : pages) {
+            for (long first = range[0]; first <= range[1]; first += IDS_PER_DELETE) {
+                pstmt.setLong(1, first);
+                pstmt.setLong(2, Math.min(range[1], first + IDS_PER_DELETE - 1));
+                final ResultSet rs = pstmt.executeQuery();
+                while (rs.next()) {
+                    properties.add(Integer.parseInt(rs.getString(1).substring(1)));
+                }
+                rs.close();
+            }
+        }
+        pstmt.close();
+        properties.sort(null);
+        return properties;
+    }
+
+    private void deleteProperties(List<Integer> properties) throws SQLException {
+        if (properties.isEmpty()) {
+            return;
+        }
+        final PreparedStatement[] pstmts = {
+                connection.prepareStatement("DELETE FROM wb_property_info WHERE pi_property_id=?"),
+                connection.prepareStatement("DELETE FROM wbt_property_terms WHERE wbpt_property_id=?"),
+                connection.prepareStatement("DELETE FROM wb_terms WHERE term_full_entity_id=?")};
+        for (int number : properties) {
+            pstmts[0].setInt(1, number);
+            pstmts[1].setInt(1, number);
+            pstmts[2].setString(1, "P" + number);
+            for (PreparedStatement pstmt : pstmts) {
+                pstmt.addBatch();
+            }
+        }
+        for (PreparedStatement pstmt : pstmts) {
+            pstmt.executeBatch();
+            pstmt.close();
+        }
+        log.info("Deleted the rows of {} properties.", properties.size());
+    }
+
+    /**
+     * Set the property counter back below the highest properties of the load if no property has been created since.
+     * Only consecutive numbers at the end are given back, lower numbers may lie between properties of other writers.
+     */
+    private void resetPropertyCounter(List<Integer> properties) throws SQLException {
+        if (properties.isEmpty()) {
+            return;
+        }
+        final int last = properties.get(properties.size() - 1);
+        int first = last;
+        for (int i = properties.size() - 2; i >= 0 && properties.get(i) == first - 1; i--) {
+            first = properties.get(i);
+        }
+        final PreparedStatement pstmt = connection.prepareStatement(
+                "UPDATE wb_id_counters SET id_value=? WHERE id_type='wikibase-property' AND id_value=?");
+        pstmt.setInt(1, first - 1);
+        pstmt.setInt(2, last);
+        if (pstmt.executeUpdate() == 0) {
+            log.warn("wb_id_counters is not reset, properties after P{} have been created since the load.", last);
+        }
+        pstmt.close();
+    }
+
+    private static boolean contains(List<long[]> ranges, long id) {
+        for (long[] range : ranges) {
+            if (id >= range[0] && id <= range[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void restorePages(Map<Long, long[]> editedPages) throws SQLException {
+        if (editedPages.isEmpty()) {
+            return;
+        }
+        final PreparedStatement pstmt = connection.prepareStatement(
+                "UPDATE page SET page_latest=?, page_len=(SELECT rev_len FROM revision WHERE rev_id=?) WHERE page_id=?");
+        for (Map.Entry<Long, long[]> entry : editedPages.entrySet()) {
+            pstmt.setLong(1, entry.getValue()[1]);
+            pstmt.setLong(2, entry.getValue()[1]);
+            pstmt.setLong(3, entry.getKey());
+            pstmt.executeUpdate();
+        }
+        pstmt.close();
+        log.info("Restored the previous revision of {} edited pages.", editedPages.size());
+    }
+
+    /**
+     * Set the counter back to the start of the last range, unless it has been increased beyond the load. Writers of
+     * parallel loads and reserved blocks advance the counter by whole blocks, so it may be anywhere up to the end of
+     * the last block. Gaps between the ranges may hold items of other writers, so the counter is not set back further.
+     *
+     * @param allocated the last Q number of the blocks of the load
+     */
+    private void resetIdCounter(List<long[]> qNumbers, long allocated) throws SQLException {
+        if (qNumbers.isEmpty()) {
+            return;
+        }
+        final long first = qNumbers.get(qNumbers.size() - 1)[0];
+        final long last = qNumbers.get(qNumbers.size() - 1)[1];
+        final PreparedStatement pstmt = connection.prepareStatement(
+                "UPDATE wb_id_counters SET id_value=? WHERE id_type='wikibase-item' AND id_value BETWEEN ? AND ?");
+        pstmt.setLong(1, first - 1);
+        pstmt.setLong(2, first - 1);
+        pstmt.setLong(3, Math.max(last, allocated));
+        if (pstmt.executeUpdate() == 0) {
+            log.warn("wb_id_counters is not reset, items after Q{} have been created since the load.", Math.max(last, allocated));
+        }
+        pstmt.close();
+    }
+}
@@ -0,0 +1,120 @@
+package net.genealogy.wikibase;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Assigns consecutive id blocks in memory. The start values are read once from the database, so this allocator assumes
+ * that no other process writes to the database. Property numbers are counted in memory as well, the writers update
+ * <code>wb_id_counters</code>.
+ */
+public class SequentialIdAllocator implements IdBlockAllocator {
+
+    private int lastQNumber;
+    private long lastTextId;
+    private long lastPageId;
+    private long lastCommentId;
+    private long lastContentId;
+    /**
+     * The highest property number that has been handed out, -1 if the counter has not been read.
+     */
+    private int lastPropertyNumber = -1;
+
+    public SequentialIdAllocator(int lastQNumber, long lastTextId, long lastPageId, long lastCommentId, long lastContentId) {
+        this.lastQNumber = lastQNumber;
+        this.lastTextId = lastTextId;
+        this.lastPageId = lastPageId;
+        this.lastCommentId = lastCommentId;
+        this.lastContentId = lastContentId;
+    }
+
+    /**
+     * Read the highest ids that are currently used in the database.
+     */
+    public static SequentialIdAllocator fromDatabase(Connection connection) throws SQLException {
+        int lastQNumber = 0;
+        final Statement stmt = connection.createStatement();
+        ResultSet rs = stmt.executeQuery("SELECT id_value  AS next_id from wb_id_counters where id_type = 'wikibase-item'");
+        if (rs.next()) {
+            lastQNumber = rs.getInt(1);
+        }
+        rs.close();
+        int lastPropertyNumber = 0;
+        rs = stmt.executeQuery("SELECT id_value FROM wb_id_counters WHERE id_type='wikibase-property'");
+        if (rs.next()) {
+            lastPropertyNumber = rs.getInt(1);
+        }
+        rs.close();
+
+        // Check if the Q-number is really unused
+        final PreparedStatement pstmtSelectItem = connection.prepareStatement("SELECT * FROM page WHERE page_namespace=120 AND page_title=?");
+        while (true) {
+            pstmtSelectItem.setString(1, "Q" + (lastQNumber + 1));
+            rs = pstmtSelectItem.executeQuery();
+            final boolean exists = rs.next();
+            rs.close();
+            if (!exists) {
+                break;
+            }
+            lastQNumber++;
+        }
+        pstmtSelectItem.close();
+
+        final long pageId = selectLong(stmt, "SELECT max(page_id) FROM page");
+        final long textId = selectLong(stmt, "SELECT max(old_id) FROM text");
+        final long commentId = selectLong(stmt, "SELECT max(comment_id) FROM comment");
+        final long contentId = selectLong(stmt, "SELECT max(content_id) FROM content");
+        stmt.close();
+
+        final SequentialIdAllocator allocator = new SequentialIdAllocator(lastQNumber, textId, pageId, commentId, contentId);
+        allocator.lastPropertyNumber = lastPropertyNumber;
+        return allocator;
+    }
+
+    private static long selectLong(Statement stmt, String sql) throws SQLException {
+        final ResultSet rs = stmt.executeQuery(sql);
+        rs.next();
+        final long value = rs.getLong(1);
+        rs.close();
+        return value;
+    }
+
+    @Override
+    public synchronized IdBlock allocate(int size) {
+        final IdBlock block = new IdBlock(lastQNumber + 1, lastTextId + 1, lastPageId + 1, lastCommentId + 1, lastContentId + 1, size);
+        lastQNumber += size;
+        lastTextId += size;
+        lastPageId += size;
+        lastCommentId += size;
+        lastContentId += size;
+        return block;
+    }
+
+    /**
+     * @throws IllegalStateException if the allocator has not been created with {@link #fromDatabase(Connection)}
+     */
+    @Override
+    public synchronized int allocatePropertyNumber() {
+        if (lastPropertyNumber < 0) {
+            throw new IllegalStateException("The property counter has not been read from the database");
+        }
+        return ++lastPropertyNumber;
+    }
+
+    /**
+     * @return the highest Q number that has been handed out
+     */
+    public synchronized int getLastQNumber() {
+        return lastQNumber;
+    }
+
+    /**
+     * @return the highest property number that has been handed out or read, -1 if the counter has not been read
+     */
+    public synchronized int getLastPropertyNumber() {
+        return lastPropertyNumber;
+    }
+}
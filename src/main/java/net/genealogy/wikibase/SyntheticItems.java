@@ -0,0 +1,62 @@
+package net.genealogy.wikibase;
+
+/**
+ * Creates items of a given shape for benchmarks. <code>small</code> has only a label, <code>medium</code> looks like
+ * the item of {@link Performance} and <code>claimHeavy</code> has terms in several languages, sitelinks and many
+ * statements. The statements refer to properties and items by id only, they need not exist.
+ */
+final class SyntheticItems {
+
+    static final String[] SHAPES = {"small", "medium", "claimHeavy"};
+    private static final String[] LANGUAGES = {"en", "de", "fr", "es", "it", "nl", "pl", "sv"};
+
+    private SyntheticItems() {
+    }
+
+    /**
+     * @param i a number that makes the labels and string values of the item unique
+     */
+    static String create(String shape, int i) {
+        switch (shape) {
+            case "small":
+                return "{\"type\":\"item\",\"labels\":{\"en\":{\"language\":\"en\",\"value\":\"Test " + i + "\"}}}";
+            case "medium":
+                return create(2, 1, i);
+            case "claimHeavy":
+                return create(50, 8, i);
+            default:
+                throw new IllegalArgumentException("Unknown shape " + shape);
+        }
+    }
+
+    private static String create(int claims, int languages, int n) {
+        final StringBuilder sb = new StringBuilder("{\"type\": \"item\",");
+        for (String terms : new String[]{"labels", "descriptions"}) {
+            sb.append('"').append(terms).append("\": {");
+            for (int i = 0; i < languages; i++) {
+                sb.append(i > 0 ? "," : "").append('"').append(LANGUAGES[i]).append("\": {\"language\": \"").append(LANGUAGES[i])
+                        .append("\",\"value\": \"Test ").append(terms).append(' ').append(LANGUAGES[i]).append(' ').append(n).append("\"}");
+            }
+            sb.append("},");
+        }
+        sb.append("\"aliases\": {},\"claims\": {");
+        for (int i = 1; i <= claims; i++) {
+            final String property = "P" + i;
+            sb.append(i > 1 ? "," : "").append('"').append(property).append("\": [{\"mainsnak\": {\"snaktype\": \"value\",\"property\": \"")
+                    .append(property).append("\",\"datavalue\": ");
+            if (i % 2 == 0) {
+                sb.append("{\"value\": {\"entity-type\": \"item\",\"numeric-id\": ").append(i).append(",\"id\": \"Q").append(i)
+                        .append("\"},\"type\": \"wikibase-entityid\"}");
+            } else {
+                sb.append("{\"value\": \"Value ").append(i).append(' ').append(n).append("\",\"type\": \"string\"}");
+            }
+            sb.append("},\"type\": \"statement\",\"rank\": \"normal\"}]");
+        }
+        sb.append("},\"sitelinks\": {");
+        for (int i = 0; i < languages / 2; i++) {
+            sb.append(i > 0 ? "," : "").append("\"").append(LANGUAGES[i]).append("wiki\": {\"site\": \"").append(LANGUAGES[i])
+                    .append("wiki\",\"title\": \"Test ").append(n).append("\",\"badges\": []}");
+        }
+        return sb.append("}}").toString();
+    }
+}
@@ -0,0 +1,26 @@
+package net.genealogy.wikibase;
+
+import lombok.Value;
+
+/**
+ * The statements written to one table up to a point in time.
+ */
+@Value
+public class TableStatistics {
+
+    String table;
+    /**
+     * Executed statements, a JDBC batch or a <code>LOAD DATA</code> counts as one.
+     */
+    long statements;
+    long rows;
+    /**
+     * Bytes sent with <code>LOAD DATA</code>. Of INSERTs only the stored text of <code>text</code> and the SHA-1 and
+     * address of <code>content</code> are counted, the other tables stay at 0.
+     */
+    long bytes;
+    double totalMillis;
+    double latencyP50Millis;
+    double latencyP99Millis;
+    double latencyMaxMillis;
+}
@@ -0,0 +1,259 @@
+package net.genealogy.wikibase;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Caches the ids of the normalized term store: <code>wbt_type</code>, <code>wbt_text</code>,
+ * <code>wbt_text_in_lang</code> and <code>wbt_term_in_lang</code>. Every distinct text is looked up in the database at
+ * most once. Missing rows get preselected ids, like {@link SequentialIdAllocator} does for items, so this assumes that
+ * no other process writes to the term store. It cannot be used for a load into a live wiki, see
+ * {@link ParallelInsert#setReserveIds(boolean)}.
+ * <p>
+ * The store is safe for use by several writers. New rows are written in batches on the connection of the store, not in
+ * the transaction of the writer that needs them. A writer calls {@link #flush()} before it commits, so every row that
+ * a committed item refers to has been committed before, even if the writer that created the row rolls back. Rows of
+ * items that have been rolled back stay unused, as rows of deleted terms do in Wikibase.
+ * <p>
+ * The texts are kept in memory for the whole load, which takes about 100 bytes per distinct text.
+ */
+public class TermStore {
+
+    private static final Logger log = LoggerFactory.getLogger(TermStore.class);
+    private final Map<String, Integer> types = new HashMap<>();
+    private final Map<String, Integer> texts = new HashMap<>();
+    private final Map<String, Integer> languages = new HashMap<>();
+    private final LongIntHashMap textsInLang = new LongIntHashMap(1 << 16);
+    private final LongIntHashMap termsInLang = new LongIntHashMap(1 << 16);
+    private final Connection connection;
+    private final PreparedStatement insertText;
+    private final PreparedStatement insertTextInLang;
+    private final PreparedStatement insertTermInLang;
+    private final int lastExistingTextId;
+    private final int lastExistingTextInLangId;
+    private boolean textsLoaded = false;
+    private int lastTextId;
+    private int lastTextInLangId;
+    private int lastTermInLangId;
+    private int pendingRows = 0;
+    /**
+     * Set if a flush failed. The cache then has ids without rows, so no writer may commit anymore.
+     */
+    private SQLException failure;
+
+    /**
+     * Read the term types and the highest ids. Missing term types are created.
+     *
+     * @param connection a connection that is used by this store only, the new rows are written with it
+     */
+    public TermStore(Connection connection) throws SQLException {
+        this.connection = connection;
+        final Statement stmt = connection.createStatement();
+        for (String type : new String[]{"label", "description", "alias"}) {
+            ResultSet rs = stmt.executeQuery("SELECT wby_id FROM wbt_type WHERE wby_name='" + type + "'");
+            if (!rs.next()) {
+                rs.close();
+                stmt.execute("INSERT INTO wbt_type (wby_name) VALUES('" + type + "')");
+                rs = stmt.executeQuery("SELECT wby_id FROM wbt_type WHERE wby_name='" + type + "'");
+                rs.next();
+                log.debug("Created term type {}", type);
+            }
+            types.put(type, rs.getInt(1));
+            rs.close();
+        }
+        lastTextId = selectInt(stmt, "SELECT max(wbx_id) FROM wbt_text");
+        lastTextInLangId = selectInt(stmt, "SELECT max(wbxl_id) FROM wbt_text_in_lang");
+        lastTermInLangId = selectInt(stmt, "SELECT max(wbtl_id) FROM wbt_term_in_lang");
+        stmt.close();
+        lastExistingTextId = lastTextId;
+        lastExistingTextInLangId = lastTextInLangId;
+        insertText = connection.prepareStatement("INSERT INTO wbt_text VALUES(?,?)");
+        insertTextInLang = connection.prepareStatement("INSERT INTO wbt_text_in_lang VALUES(?,?,?)");
+        insertTermInLang = connection.prepareStatement("INSERT INTO wbt_term_in_lang VALUES(?,?,?)");
+    }
+
+    private static int selectInt(Statement stmt, String sql) throws SQLException {
+        final ResultSet rs = stmt.executeQuery(sql);
+        rs.next();
+        final int value = rs.getInt(1);
+        rs.close();
+        return value;
+    }
+
+    /**
+     * Read all existing texts with their languages and types. Afterwards a text that is not in the cache is known to be
+     * new and no query is necessary. Use this if most of the texts of the load already exist.
+     */
+    public synchronized void load(Connection connection) throws SQLException {
+        final Statement stmt = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        stmt.setFetchSize(Integer.MIN_VALUE);
+        ResultSet rs = stmt.executeQuery("SELECT wbx_id, wbx_text FROM wbt_text");
+        while (rs.next()) {
+            texts.put(rs.getString(2), rs.getInt(1));
+        }
+        rs.close();
+        rs = stmt.executeQuery("SELECT wbxl_id, wbxl_text_id, wbxl_language FROM wbt_text_in_lang");
+        while (rs.next()) {
+            textsInLang.put(textInLangKey(rs.getInt(2), rs.getString(3)), rs.getInt(1));
+        }
+        rs.close();
+        rs = stmt.executeQuery("SELECT wbtl_id, wbtl_text_in_lang_id, wbtl_type_id FROM wbt_term_in_lang");
+        while (rs.next()) {
+            termsInLang.put(termInLangKey(rs.getInt(2), rs.getInt(3)), rs.getInt(1));
+        }
+        rs.close();
+        stmt.close();
+        textsLoaded = true;
+        log.info("Loaded {} texts of the term store.", texts.size());
+    }
+
+    boolean usesConnection(Connection connection) {
+        return this.connection == connection;
+    }
+
+    /**
+     * @param type <code>label</code>, <code>description</code> or <code>alias</code>
+     */
+    int getTypeId(String type) {
+        final Integer id = types.get(type);
+        if (id == null) {
+            throw new IllegalArgumentException("Unknown term type " + type);
+        }
+        return id;
+    }
+
+    /**
+     * @param select <code>SELECT wbx_id FROM wbt_text WHERE wbx_text=?</code>
+     * @return the id of the text, a new row is written with the next {@link #flush()}
+     */
+    synchronized int internText(PreparedStatement select, String text) throws SQLException {
+        final Integer id = texts.get(text);
+        if (id != null) {
+            return id;
+        }
+        if (!textsLoaded) {
+            select.setString(1, text);
+            final int existingId = selectId(select);
+            if (existingId != 0) {
+                texts.put(text, existingId);
+                return existingId;
+            }
+        }
+        texts.put(text, ++lastTextId);
+        insertText.setInt(1, lastTextId);
+        insertText.setString(2, text);
+        insertText.addBatch();
+        pendingRows++;
+        return lastTextId;
+    }
+
+    /**
+     * @param select <code>SELECT wbxl_id FROM wbt_text_in_lang WHERE wbxl_text_id=? AND wbxl_language=?</code>
+     * @return the id of the text in the language, a new row is written with the next {@link #flush()}
+     */
+    synchronized int internTextInLang(PreparedStatement select, int textId, String language) throws SQLException {
+        final long key = textInLangKey(textId, language);
+        final int id = textsInLang.get(key);
+        if (id != 0) {
+            return id;
+        }
+        // A new text cannot be used in any language yet
+        if (textId <= lastExistingTextId && !textsLoaded) {
+            select.setInt(1, textId);
+            select.setString(2, language);
+            final int existingId = selectId(select);
+            if (existingId != 0) {
+                textsInLang.put(key, existingId);
+                return existingId;
+            }
+        }
+        textsInLang.put(key, ++lastTextInLangId);
+        insertTextInLang.setInt(1, lastTextInLangId);
+        insertTextInLang.setString(2, language);
+        insertTextInLang.setInt(3, textId);
+        insertTextInLang.addBatch();
+        pendingRows++;
+        return lastTextInLangId;
+    }
+
+    /**
+     * @param select <code>SELECT wbtl_id FROM wbt_term_in_lang WHERE wbtl_text_in_lang_id=? AND wbtl_type_id=?</code>
+     * @return the id of the term, a new row is written with the next {@link #flush()}
+     */
+    synchronized int internTermInLang(PreparedStatement select, int textInLangId, int typeId) throws SQLException {
+        final long key = termInLangKey(textInLangId, typeId);
+        final int id = termsInLang.get(key);
+        if (id != 0) {
+            return id;
+        }
+        if (textInLangId <= lastExistingTextInLangId && !textsLoaded) {
+            select.setInt(1, textInLangId);
+            select.setInt(2, typeId);
+            final int existingId = selectId(select);
+            if (existingId != 0) {
+                termsInLang.put(key, existingId);
+                return existingId;
+            }
+        }
+        termsInLang.put(key, ++lastTermInLangId);
+        insertTermInLang.setInt(1, lastTermInLangId);
+        insertTermInLang.setInt(2, typeId);
+        insertTermInLang.setInt(3, textInLangId);
+        insertTermInLang.addBatch();
+        pendingRows++;
+        return lastTermInLangId;
+    }
+
+    /**
+     * Write and commit the new rows. A writer calls this before it commits items that refer to them.
+     */
+    public synchronized void flush() throws SQLException {
+        if (failure != null) {
+            throw new SQLException("An earlier write of the term store failed", failure);
+        }
+        if (pendingRows == 0) {
+            return;
+        }
+        try {
+            insertText.executeBatch();
+            insertTextInLang.executeBatch();
+            insertTermInLang.executeBatch();
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+            }
+        } catch (SQLException e) {
+            failure = e;
+            throw e;
+        }
+        log.debug("Wrote {} rows of the term store.", pendingRows);
+        pendingRows = 0;
+    }
+
+    private static int selectId(PreparedStatement select) throws SQLException {
+        final ResultSet rs = select.executeQuery();
+        final int id = rs.next() ? rs.getInt(1) : 0;
+        rs.close();
+        return id;
+    }
+
+    private long textInLangKey(int textId, String language) {
+        Integer languageNumber = languages.get(language);
+        if (languageNumber == null) {
+            languageNumber = languages.size() + 1;
+            languages.put(language, languageNumber);
+        }
+        return ((long) textId << 20) | languageNumber;
+    }
+
+    private static long termInLangKey(int textInLangId, int typeId) {
+        return ((long) textInLangId << 8) | typeId;
+    }
+}
@@ -0,0 +1,192 @@
+package net.genealogy.wikibase;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+
+/**
+ * Decides when a {@link DatabaseInsert} commits and how many items it sends per batch.
+ * <p>
+ * In adaptive mode the controller searches for the fastest setting while the load is running. It measures the
+ * throughput over a window of at least {@link #setWindowMillis(long) a few seconds} and then doubles or halves either
+ * the number of items per transaction or the batch size. A step that makes the load faster is repeated, otherwise it
+ * is taken back and the other setting is tried next. Transactions whose commit takes longer than
+ * {@link #setMaxCommitMillis(long)} are always made smaller, so the undo log stays small.
+ */
+public class TransactionController {
+
+    private static final Logger log = LoggerFactory.getLogger(TransactionController.class);
+    /**
+     * A window must be this much faster than the previous one to count as an improvement.
+     */
+    private static final double MIN_IMPROVEMENT = 1.02;
+    private final DatabaseInsert writer;
+    private int itemsPerTransaction;
+    private int batchSize;
+    private boolean adaptive = false;
+    private int maxItemsPerTransaction = 100000;
+    private int maxBatchSize = 10000;
+    private long maxCommitMillis = 5000;
+    private long windowMillis = 3000;
+
+    private int itemsInTransaction = 0;
+    private boolean tuneBatchSize = false;
+    private int transactionDirection = 1;
+    private int batchDirection = 1;
+    /**
+     * The throughput of the last setting that was kept, steps are compared with it.
+     */
+    private double acceptedThroughput = 0;
+    private int acceptedItemsPerTransaction;
+    private int acceptedBatchSize;
+    private long windowStart;
+    private long windowItems = 0;
+    private long maxCommitNanosInWindow = 0;
+
+    /**
+     * @param writer              the writer, which must not be used in a transaction yet
+     * @param itemsPerTransaction the number of items per transaction, the start value in adaptive mode
+     * @param batchSize           the number of items per batch, the start value in adaptive mode
+     */
+    public TransactionController(DatabaseInsert writer, int itemsPerTransaction, int batchSize) {
+        this.writer = writer;
+        this.itemsPerTransaction = itemsPerTransaction;
+        this.batchSize = Math.min(batchSize, itemsPerTransaction);
+    }
+
+    /**
+     * Adapt the number of items per transaction and the batch size to the throughput.
+     */
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    public void setMaxItemsPerTransaction(int maxItemsPerTransaction) {
+        this.maxItemsPerTransaction = maxItemsPerTransaction;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Commits that take longer make the transactions smaller.
+     */
+    public void setMaxCommitMillis(long maxCommitMillis) {
+        this.maxCommitMillis = maxCommitMillis;
+    }
+
+    /**
+     * The minimum time over which the throughput of a setting is measured.
+     */
+    public void setWindowMillis(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    public int getItemsPerTransaction() {
+        return itemsPerTransaction;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Start the first transaction.
+     */
+    public void start() throws SQLException {
+        writer.startTransaction();
+        writer.setBatchSize(batchSize);
+        windowStart = System.nanoTime();
+    }
+
+    /**
+     * Call after every created item. Commits if the transaction is complete.
+     */
+    public void itemCreated() throws SQLException {
+        if (++itemsInTransaction >= itemsPerTransaction) {
+            commit();
+        }
+    }
+
+    /**
+     * Commit the last transaction.
+     */
+    public void finish() throws SQLException {
+        writer.commit();
+        itemsInTransaction = 0;
+    }
+
+    private void commit() throws SQLException {
+        final long start = System.nanoTime();
+        writer.commit();
+        final long end = System.nanoTime();
+        windowItems += itemsInTransaction;
+        itemsInTransaction = 0;
+        maxCommitNanosInWindow = Math.max(maxCommitNanosInWindow, end - start);
+
+        if (adaptive && end - windowStart >= windowMillis * 1_000_000) {
+            final int oldBatchSize = batchSize;
+            adapt(windowItems * 1e9 / (end - windowStart), maxCommitNanosInWindow / 1_000_000);
+            if (batchSize != oldBatchSize) {
+                writer.setBatchSize(batchSize);
+            }
+            windowStart = System.nanoTime();
+            windowItems = 0;
+            maxCommitNanosInWindow = 0;
+        }
+    }
+
+    /**
+     * Choose the setting for the next window from the measurements of the last one.
+     */
+    void adapt(double throughput, long maxCommitMillisInWindow) {
+        final int oldItemsPerTransaction = itemsPerTransaction;
+        final int oldBatchSize = batchSize;
+
+        if (maxCommitMillisInWindow > maxCommitMillis && itemsPerTransaction > 1) {
+            transactionDirection = -1;
+            tuneBatchSize = false;
+            itemsPerTransaction = step(itemsPerTransaction, -1, maxItemsPerTransaction);
+            // The smaller transactions are kept in any case, so the next window is the new baseline
+            acceptedThroughput = 0;
+        } else if (throughput < acceptedThroughput * MIN_IMPROVEMENT) {
+            // The last step did not help, so go back to the kept setting and step the other setting from there
+            itemsPerTransaction = acceptedItemsPerTransaction;
+            batchSize = acceptedBatchSize;
+            if (tuneBatchSize) {
+                batchDirection = -batchDirection;
+            } else {
+                transactionDirection = -transactionDirection;
+            }
+            tuneBatchSize = !tuneBatchSize;
+            takeStep();
+        } else {
+            acceptedThroughput = throughput;
+            acceptedItemsPerTransaction = itemsPerTransaction;
+            acceptedBatchSize = batchSize;
+            takeStep();
+        }
+        batchSize = Math.min(batchSize, itemsPerTransaction);
+
+        log.debug("{} items/s with {} items per transaction and batches of {}, longest commit {} ms",
+                (long) throughput, oldItemsPerTransaction, oldBatchSize, maxCommitMillisInWindow);
+        if (itemsPerTransaction != oldItemsPerTransaction || batchSize != oldBatchSize) {
+            log.info("Now {} items per transaction and batches of {}.", itemsPerTransaction, batchSize);
+        }
+    }
+
+    private void takeStep() {
+        if (tuneBatchSize) {
+            batchSize = step(batchSize, batchDirection, Math.min(maxBatchSize, itemsPerTransaction));
+        } else {
+            itemsPerTransaction = step(itemsPerTransaction, transactionDirection, maxItemsPerTransaction);
+        }
+    }
+
+    private static int step(int value, int direction, int max) {
+        final int next = direction > 0 ? value * 2 : value / 2;
+        return Math.max(1, Math.min(max, next));
+    }
+}
@@ -0,0 +1,374 @@
+package net.genealogy.wikibase;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the items in the RDF format of Wikibase as Turtle, so the query service can be filled with
+ * <code>loadData.sh</code> instead of fetching every new item from the wiki.
+ * <p>
+ * The files are named <code>wikidump-000000001.ttl.gz</code>, <code>wikidump-000000002.ttl.gz</code> and so on, with a
+ * fixed number of items per file. Every item gets its labels, descriptions, aliases, truthy statements and full
+ * statements with qualifiers. References and the pages of the sitelinks are left out. Only the simple values are
+ * written, i.e. the <code>wdt:</code>, <code>ps:</code> and <code>pq:</code> triples. There are no full value nodes,
+ * so the precision and calendar model of times and the units and bounds of quantities are not exported.
+ * <p>
+ * {@link DatabaseInsert} writes the items of a transaction only after its commit, so the files never contain items
+ * that were rolled back. The export is safe for use by several writers.
+ */
+public class TurtleExport implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(TurtleExport.class);
+    private final File directory;
+    private final String conceptBaseUri;
+    private final int itemsPerFile;
+    private final ThreadLocal<StringBuilder> buffers = ThreadLocal.withInitial(() -> new StringBuilder(8192));
+    private Writer out;
+    private int fileNumber = 0;
+    private int itemsInFile = 0;
+
+    /**
+     * @param directory      the directory of the files
+     * @param conceptBaseUri the base of the entity URIs, e.g. <code>http://wikibase.svc/</code>, the entities are
+     *                       <code>http://wikibase.svc/entity/Q1</code>
+     * @param itemsPerFile   number of items per file
+     */
+    public TurtleExport(File directory, String conceptBaseUri, int itemsPerFile) {
+        this.directory = directory;
+        this.conceptBaseUri = conceptBaseUri.endsWith("/") ? conceptBaseUri : conceptBaseUri + "/";
+        this.itemsPerFile = itemsPerFile;
+    }
+
+    /**
+     * Convert a revision of an item, which is written with {@link #write(List)} once it is committed.
+     *
+     * @param json      the JSON of the item as it is stored in the wiki
+     * @param revision  the id of the revision
+     * @param timestamp the MediaWiki timestamp of the revision
+     * @return the Turtle of the item
+     */
+    String render(String itemId, String json, long revision, String timestamp) {
+        final StringBuilder sb = buffers.get();
+        sb.setLength(0);
+        appendItem(sb, itemId, new JSONObject(json), revision, timestamp);
+        return sb.toString();
+    }
+
+    /**
+     * Add committed items.
+     *
+     * @param items the Turtle of every item, see {@link #render(String, String, long, String)}
+     */
+    synchronized void write(List<String> items) {
+        try {
+            for (String item : items) {
+                append(item);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write the RDF", e);
+        }
+    }
+
+    private void append(CharSequence item) throws IOException {
+        if (out == null || itemsInFile == itemsPerFile) {
+            nextFile();
+        }
+        out.append(item);
+        itemsInFile++;
+    }
+
+    private void nextFile() throws IOException {
+        if (out != null) {
+            out.close();
+        }
+        final File file = new File(directory, String.format("wikidump-%09d.ttl.gz", ++fileNumber));
+        final OutputStream stream = new GZIPOutputStream(new FileOutputStream(file), 1 << 16);
+        out = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
+        itemsInFile = 0;
+        out.append("@prefix wd: <").append(conceptBaseUri).append("entity/> .\n")
+                .append("@prefix wds: <").append(conceptBaseUri).append("entity/statement/> .\n")
+                .append("@prefix wdata: <").append(conceptBaseUri).append("wiki/Special:EntityData/> .\n")
+                .append("@prefix wdt: <").append(conceptBaseUri).append("prop/direct/> .\n")
+                .append("@prefix p: <").append(conceptBaseUri).append("prop/> .\n")
+                .append("@prefix ps: <").append(conceptBaseUri).append("prop/statement/> .\n")
+                .append("@prefix pq: <").append(conceptBaseUri).append("prop/qualifier/> .\n")
+                .append("@prefix wikibase: <http://wikiba.se/ontology#> .\n")
+                .append("@prefix rdfs: <http://www.w3.org/2000/01/rdf-schema#> .\n")
+                .append("@prefix skos: <http://www.w3.org/2004/02/skos/core#> .\n")
+                .append("@prefix schema: <http://schema.org/> .\n")
+                .append("@prefix xsd: <http://www.w3.org/2001/XMLSchema#> .\n")
+                .append("@prefix geo: <http://www.opengis.net/ont/geosparql#> .\n\n");
+        log.debug("Writing {}", file);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    private void appendItem(StringBuilder sb, String itemId, JSONObject item, long revision, String timestamp) {
+        final JSONObject claims = item.optJSONObject("claims");
+        final JSONObject sitelinks = item.optJSONObject("sitelinks");
+        int statements = 0;
+        if (claims != null) {
+            for (String property : claims.keySet()) {
+                statements += claims.getJSONArray(property).length();
+            }
+        }
+
+        sb.append("wdata:").append(itemId).append(" a schema:Dataset ;\n\tschema:about wd:").append(itemId)
+                .append(" ;\n\tschema:version \"").append(revision).append("\"^^xsd:integer ;\n\tschema:dateModified \"")
+                .append(isoTimestamp(timestamp)).append("\"^^xsd:dateTime ;\n\twikibase:statements \"").append(statements)
+                .append("\"^^xsd:integer ;\n\twikibase:sitelinks \"").append(sitelinks == null ? 0 : sitelinks.length())
+                .append("\"^^xsd:integer .\n\n");
+
+        sb.append("wd:").append(itemId).append(" a wikibase:Item");
+        appendTerms(sb, item.optJSONObject("labels"), "rdfs:label", "skos:prefLabel", "schema:name");
+        appendTerms(sb, item.optJSONObject("descriptions"), "schema:description");
+        final JSONObject aliases = item.optJSONObject("aliases");
+        if (aliases != null) {
+            for (String language : aliases.keySet()) {
+                final JSONArray list = aliases.getJSONArray(language);
+                for (int i = 0; i < list.length(); i++) {
+                    sb.append(" ;\n\tskos:altLabel ");
+                    appendLiteral(sb, list.getJSONObject(i).getString("value")).append('@').append(language);
+                }
+            }
+        }
+        if (claims != null) {
+            for (String property : claims.keySet()) {
+                final JSONArray list = claims.getJSONArray(property);
+                final String bestRank = bestRank(list);
+                for (int i = 0; i < list.length(); i++) {
+                    final JSONObject statement = list.getJSONObject(i);
+                    if (statement.optString("rank", "normal").equals(bestRank)) {
+                        final JSONObject snak = statement.getJSONObject("mainsnak");
+                        if (hasValue(snak)) {
+                            sb.append(" ;\n\twdt:").append(property).append(' ');
+                            appendValue(sb, snak);
+                        }
+                    }
+                    sb.append(" ;\n\tp:").append(property).append(" wds:").append(statementNode(itemId, statement, i));
+                }
+            }
+        }
+        sb.append(" .\n\n");
+
+        if (claims != null) {
+            for (String property : claims.keySet()) {
+                final JSONArray list = claims.getJSONArray(property);
+                final String bestRank = bestRank(list);
+                for (int i = 0; i < list.length(); i++) {
+                    appendStatement(sb, itemId, property, list.getJSONObject(i), i, bestRank);
+                }
+            }
+        }
+    }
+
+    private void appendStatement(StringBuilder sb, String itemId, String property, JSONObject statement, int index, String bestRank) {
+        final String rank = statement.optString("rank", "normal");
+        sb.append("wds:").append(statementNode(itemId, statement, index)).append(" a wikibase:Statement");
+        if (rank.equals(bestRank)) {
+            sb.append(", wikibase:BestRank");
+        }
+        sb.append(" ;\n\twikibase:rank wikibase:").append(Character.toUpperCase(rank.charAt(0))).append(rank.substring(1)).append("Rank");
+        final JSONObject snak = statement.getJSONObject("mainsnak");
+        if (hasValue(snak)) {
+            sb.append(" ;\n\tps:").append(property).append(' ');
+            appendValue(sb, snak);
+        }
+        final JSONObject qualifiers = statement.optJSONObject("qualifiers");
+        if (qualifiers != null) {
+            for (String qualifier : qualifiers.keySet()) {
+                final JSONArray snaks = qualifiers.getJSONArray(qualifier);
+                for (int i = 0; i < snaks.length(); i++) {
+                    if (hasValue(snaks.getJSONObject(i))) {
+                        sb.append(" ;\n\tpq:").append(qualifier).append(' ');
+                        appendValue(sb, snaks.getJSONObject(i));
+                    }
+                }
+            }
+        }
+        sb.append(" .\n\n");
+    }
+
+    /**
+     * @return the preferred rank if a statement has it, otherwise the normal rank
+     */
+    private static String bestRank(JSONArray statements) {
+        for (int i = 0; i < statements.length(); i++) {
+            if ("preferred".equals(statements.getJSONObject(i).optString("rank"))) {
+                return "preferred";
+            }
+        }
+        return "normal";
+    }
+
+    /**
+     * Wikibase replaces the <code>$</code> of the statement id with a dash.
+     */
+    private static String statementNode(String itemId, JSONObject statement, int index) {
+        final String id = statement.optString("id", null);
+        return id == null ? itemId + "-" + index : id.replace('$', '-');
+    }
+
+    /**
+     * Unknown values are written as blank nodes, missing values are left out.
+     */
+    private static boolean hasValue(JSONObject snak) {
+        return !"novalue".equals(snak.optString("snaktype"));
+    }
+
+    private void appendTerms(StringBuilder sb, JSONObject terms, String... predicates) {
+        if (terms == null) {
+            return;
+        }
+        for (String language : terms.keySet()) {
+            final String text = terms.getJSONObject(language).getString("value");
+            for (String predicate : predicates) {
+                sb.append(" ;\n\t").append(predicate).append(' ');
+                appendLiteral(sb, text).append('@').append(language);
+            }
+        }
+    }
+
+    private void appendValue(StringBuilder sb, JSONObject snak) {
+        if ("somevalue".equals(snak.optString("snaktype"))) {
+            sb.append("[]");
+            return;
+        }
+        final JSONObject dataValue = snak.getJSONObject("datavalue");
+        final String type = dataValue.getString("type");
+        switch (type) {
+            case "wikibase-entityid": {
+                final JSONObject value = dataValue.getJSONObject("value");
+                final String id = value.has("id") ? value.getString("id")
+                        : ("property".equals(value.optString("entity-type")) ? "P" : "Q") + value.get("numeric-id");
+                sb.append("wd:").append(id);
+                break;
+            }
+            case "string": {
+                final String value = dataValue.getString("value");
+                if ("url".equals(snak.optString("datatype")) && isIri(value)) {
+                    sb.append('<').append(value).append('>');
+                } else {
+                    appendLiteral(sb, value);
+                }
+                break;
+            }
+            case "monolingualtext": {
+                final JSONObject value = dataValue.getJSONObject("value");
+                appendLiteral(sb, value.getString("text")).append('@').append(value.getString("language"));
+                break;
+            }
+            case "quantity": {
+                final String amount = dataValue.getJSONObject("value").getString("amount");
+                appendLiteral(sb, amount.startsWith("+") ? amount.substring(1) : amount).append("^^xsd:decimal");
+                break;
+            }
+            case "time": {
+                final JSONObject value = dataValue.getJSONObject("value");
+                appendLiteral(sb, xsdDateTime(value.getString("time"), value.optInt("precision", 11))).append("^^xsd:dateTime");
+                break;
+            }
+            case "globecoordinate": {
+                final JSONObject value = dataValue.getJSONObject("value");
+                sb.append("\"Point(").append(value.get("longitude")).append(' ').append(value.get("latitude"))
+                        .append(")\"^^geo:wktLiteral");
+                break;
+            }
+            default:
+                appendLiteral(sb, dataValue.get("value").toString());
+        }
+    }
+
+    private static boolean isIri(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c <= ' ' || "<>\"{}|^`\\".indexOf(c) >= 0) {
+                return false;
+            }
+        }
+        return value.indexOf(':') > 0;
+    }
+
+    private static StringBuilder appendLiteral(StringBuilder sb, String text) {
+        sb.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb.append('"');
+    }
+
+    /**
+     * Turn a Wikibase time into a valid <code>xsd:dateTime</code> like the RDF builder of Wikibase does. A month or day
+     * of <code>00</code>, as used for dates with year or month precision, becomes <code>01</code>. Years before the
+     * common era are numbered like in XSD 1.1, where 1 BCE is the year 0.
+     *
+     * @param time      e.g. <code>+1850-00-00T00:00:00Z</code> or <code>-0044-03-15T00:00:00Z</code>
+     * @param precision the precision of the value, 9 for a year, 10 for a month and 11 for a day
+     * @return e.g. <code>1850-01-01T00:00:00Z</code> or <code>-0043-03-15T00:00:00Z</code>
+     */
+    static String xsdDateTime(String time, int precision) {
+        final int start = time.startsWith("+") || time.startsWith("-") ? 1 : 0;
+        final int yearEnd = time.indexOf('-', start);
+        long year = Long.parseLong(time.substring(start, yearEnd));
+        if (start == 1 && time.charAt(0) == '-') {
+            year = -(year - 1);
+        }
+        String month = time.substring(yearEnd + 1, yearEnd + 3);
+        String day = time.substring(yearEnd + 4, yearEnd + 6);
+        if (precision < 10 || "00".equals(month)) {
+            month = "01";
+        }
+        if (precision < 11 || "00".equals(day)) {
+            day = "01";
+        }
+        return (year < 0 ? "-" : "") + String.format("%04d", Math.abs(year)) + '-' + month + '-' + day
+                + time.substring(yearEnd + 6);
+    }
+
+    /**
+     * @param timestamp e.g. <code>20200514123000</code>
+     * @return e.g. <code>2020-05-14T12:30:00Z</code>
+     */
+    private static String isoTimestamp(String timestamp) {
+        return timestamp.substring(0, 4) + '-' + timestamp.substring(4, 6) + '-' + timestamp.substring(6, 8) + 'T'
+                + timestamp.substring(8, 10) + ':' + timestamp.substring(10, 12) + ':' + timestamp.substring(12, 14) + 'Z';
+    }
+}
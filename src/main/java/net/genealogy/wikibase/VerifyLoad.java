@@ -0,0 +1,296 @@
+package net.genealogy.wikibase;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks the rows of a load with the id ranges of its {@link IdJournal}, since direct inserts skip all checks of
+ * MediaWiki. Every revision must have its main slot, content, text and page. The length and the SHA-1 of the text are
+ * computed again and compared with <code>revision</code>, <code>content</code> and, for the latest revision,
+ * <code>page</code>. The id in the JSON of an entity must be the title of its page. Every page of the load must point
+ * to one of its own revisions. Ids of the journal without a row are reported as well, e.g. of a transaction whose
+ * commit failed.
+ * <p>
+ * The ranges are split into chunks that are read by several connections in parallel. Each chunk is read with keyset
+ * pagination, i.e. a query per few hundred rows that continues after the last id, so no query has to skip rows.
+ * <p>
+ * Usage: <code>VerifyLoad journal jdbc-url user password [connections]</code>
+ */
+public class VerifyLoad {
+
+    private static final Logger log = LoggerFactory.getLogger(VerifyLoad.class);
+    private static final int IDS_PER_CHUNK = 100000;
+    private static final int ROWS_PER_QUERY = 500;
+    /**
+     * Only the first mismatches are logged one by one, the others are only counted.
+     */
+    private static final int LOGGED_MISMATCHES = 100;
+
+    private final ParallelInsert.ConnectionFactory connectionFactory;
+    private final int connections;
+    private final Map<String, Long> mismatches = new TreeMap<>();
+    private final AtomicLong loggedMismatches = new AtomicLong();
+    private final AtomicLong revisions = new AtomicLong();
+    private final AtomicLong pages = new AtomicLong();
+
+    /**
+     * @param connectionFactory opens a connection for every reader
+     * @param connections       the number of chunks that are read in parallel
+     */
+    public VerifyLoad(ParallelInsert.ConnectionFactory connectionFactory, int connections) {
+        this.connectionFactory = connectionFactory;
+        this.connections = connections;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 4 && args.length != 5) {
+            System.err.println("Usage: VerifyLoad <journal> <jdbc url> <user> <password> [connections]");
+            System.exit(1);
+        }
+        final VerifyLoad verify = new VerifyLoad(() -> DriverManager.getConnection(args[1], args[2], args[3]),
+                args.length == 5 ? Integer.parseInt(args[4]) : 4);
+        final long found = verify.verify(IdJournal.read(new File(args[0])));
+        System.exit(found == 0 ? 0 : 1);
+    }
+
+    /**
+     * Check all revisions and pages in the ranges of the journal.
+     *
+     * @return the number of mismatches
+     */
+    public long verify(List<IdRanges> journal) throws Exception {
+        final Queue<Chunk> chunks = new ConcurrentLinkedQueue<>();
+        for (long[] range : IdRanges.merge(journal, IdRanges::getFirstTextId, IdRanges::getLastTextId)) {
+            split(range, false, chunks);
+        }
+        for (long[] range : IdRanges.merge(journal, IdRanges::getFirstPageId, IdRanges::getLastPageId)) {
+            split(range, true, chunks);
+        }
+        final long start = System.currentTimeMillis();
+        final ExecutorService executor = Executors.newFixedThreadPool(connections);
+        final List<Future<?>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < connections; i++) {
+                results.add(executor.submit(() -> {
+                    read(chunks);
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final long millis = Math.max(1, System.currentTimeMillis() - start);
+        log.info("Verified {} revisions and {} pages in {} s, {} revisions/s.", revisions.get(), pages.get(),
+                millis / 1000.0, revisions.get() * 1000 / millis);
+        long total = 0;
+        synchronized (mismatches) {
+            for (Map.Entry<String, Long> entry : mismatches.entrySet()) {
+                log.warn("{}: {}", entry.getKey(), entry.getValue());
+                total += entry.getValue();
+            }
+        }
+        if (total == 0) {
+            log.info("No mismatches found.");
+        }
+        return total;
+    }
+
+    /**
+     * A range of revision or page ids, first and last inclusive.
+     */
+    private static class Chunk {
+        final long first;
+        final long last;
+        final boolean pages;
+
+        Chunk(long first, long last, boolean pages) {
+            this.first = first;
+            this.last = last;
+            this.pages = pages;
+        }
+    }
+
+    private static void split(long[] range, boolean pages, Queue<Chunk> chunks) {
+        for (long first = range[0]; first <= range[1]; first += IDS_PER_CHUNK) {
+            chunks.add(new Chunk(first, Math.min(range[1], first + IDS_PER_CHUNK - 1), pages));
+        }
+    }
+
+    /**
+     * Read chunks with one connection until all chunks are taken.
+     */
+    private void read(Queue<Chunk> chunks) throws SQLException {
+        final Connection connection = connectionFactory.open();
+        final ItemSerializer json = new ItemSerializer();
+        final PreparedStatement selectRevisions = connection.prepareStatement(
+                "SELECT rev_id, rev_len, rev_sha1, rev_text_id, slot_revision_id, content_id, content_size, content_sha1, content_address,"
+                        + " old_id, old_text, old_flags, page_id, page_title, page_latest, page_len, page_content_model"
+                        + " FROM revision"
+                        + " LEFT JOIN slots ON slot_revision_id=rev_id AND slot_role_id=1"
+                        + " LEFT JOIN content ON content_id=slot_content_id"
+                        + " LEFT JOIN text ON old_id=rev_text_id"
+                        + " LEFT JOIN page ON page_id=rev_page"
+                        + " WHERE rev_id>? AND rev_id<=? ORDER BY rev_id LIMIT " + ROWS_PER_QUERY);
+        final PreparedStatement selectPages = connection.prepareStatement(
+                "SELECT page_id, page_latest, rev_id, rev_page FROM page LEFT JOIN revision ON rev_id=page_latest"
+                        + " WHERE page_id>? AND page_id<=? ORDER BY page_id LIMIT " + ROWS_PER_QUERY);
+        try {
+            Chunk chunk = chunks.poll();
+            while (chunk != null) {
+                if (chunk.pages) {
+                    readPages(selectPages, chunk);
+                } else {
+                    readRevisions(selectRevisions, json, chunk);
+                }
+                chunk = chunks.poll();
+            }
+        } finally {
+            selectRevisions.close();
+            selectPages.close();
+            connection.close();
+        }
+    }
+
+    private void readRevisions(PreparedStatement pstmt, ItemSerializer json, Chunk chunk) throws SQLException {
+        // The last id that has been read, the next query continues after it
+        long last = chunk.first - 1;
+        int rows;
+        do {
+            pstmt.setLong(1, last);
+            pstmt.setLong(2, chunk.last);
+            final ResultSet rs = pstmt.executeQuery();
+            rows = 0;
+            while (rs.next()) {
+                final long id = rs.getLong("rev_id");
+                if (id > last + 1) {
+                    mismatch("missing revision", last + 1, "up to " + (id - 1));
+                }
+                checkRevision(rs, json);
+                last = id;
+                rows++;
+            }
+            rs.close();
+            revisions.addAndGet(rows);
+        } while (rows == ROWS_PER_QUERY);
+        if (last < chunk.last) {
+            mismatch("missing revision", last + 1, "up to " + chunk.last);
+        }
+    }
+
+    private void checkRevision(ResultSet rs, ItemSerializer json) throws SQLException {
+        final long id = rs.getLong("rev_id");
+        final long length = rs.getLong("rev_len");
+        final String sha1 = rs.getString("rev_sha1");
+        if (rs.getString("page_id") == null) {
+            mismatch("revision without page", id, null);
+        } else if (rs.getLong("page_latest") == id && rs.getLong("page_len") != length) {
+            mismatch("page_len differs from rev_len", id, rs.getLong("page_len") + " <> " + length);
+        }
+        if (rs.getString("slot_revision_id") == null) {
+            mismatch("revision without slot", id, null);
+        } else if (rs.getString("content_id") == null) {
+            mismatch("slot without content", id, null);
+        } else {
+            if (!("tt:" + rs.getLong("rev_text_id")).equals(rs.getString("content_address"))) {
+                mismatch("content_address differs from rev_text_id", id, rs.getString("content_address"));
+            }
+            if (rs.getLong("content_size") != length) {
+                mismatch("content_size differs from rev_len", id, rs.getLong("content_size") + " <> " + length);
+            }
+            if (!sha1.equals(rs.getString("content_sha1"))) {
+                mismatch("content_sha1 differs from rev_sha1", id, rs.getString("content_sha1") + " <> " + sha1);
+            }
+        }
+        if (rs.getString("old_id") == null) {
+            mismatch("revision without text", id, null);
+            return;
+        }
+
+        final byte[] data = DuplicateIndex.uncompress(rs.getBytes("old_text"), rs.getString("old_flags"));
+        if (data == null) {
+            // Stored externally, nothing to compare
+            return;
+        }
+        if (data.length != length) {
+            mismatch("length of text differs from rev_len", id, data.length + " <> " + length);
+        }
+        final String computed = DatabaseInsert.sha1base36(data);
+        if (!computed.equals(sha1)) {
+            mismatch("SHA-1 of text differs from rev_sha1", id, computed + " <> " + sha1);
+        }
+        final String model = rs.getString("page_content_model");
+        if (model != null && model.startsWith("wikibase-")) {
+            final String title = rs.getString("page_title");
+            String entityId;
+            try {
+                entityId = json.topLevelString(new String(data, StandardCharsets.UTF_8), "id");
+            } catch (RuntimeException e) {
+                mismatch("invalid JSON", id, e.getMessage());
+                return;
+            }
+            if (!title.equals(entityId)) {
+                mismatch("id in JSON differs from page_title", id, entityId + " <> " + title);
+            }
+        }
+    }
+
+    private void readPages(PreparedStatement pstmt, Chunk chunk) throws SQLException {
+        long last = chunk.first - 1;
+        int rows;
+        do {
+            pstmt.setLong(1, last);
+            pstmt.setLong(2, chunk.last);
+            final ResultSet rs = pstmt.executeQuery();
+            rows = 0;
+            while (rs.next()) {
+                final long id = rs.getLong(1);
+                if (id > last + 1) {
+                    mismatch("missing page", last + 1, "up to " + (id - 1));
+                }
+                if (rs.getString(3) == null) {
+                    mismatch("page_latest does not exist", id, rs.getString(2));
+                } else if (rs.getLong(4) != id) {
+                    mismatch("page_latest belongs to another page", id, rs.getString(2) + " of page " + rs.getLong(4));
+                }
+                last = id;
+                rows++;
+            }
+            rs.close();
+            pages.addAndGet(rows);
+        } while (rows == ROWS_PER_QUERY);
+        if (last < chunk.last) {
+            mismatch("missing page", last + 1, "up to " + chunk.last);
+        }
+    }
+
+    private void mismatch(String kind, long id, String details) {
+        synchronized (mismatches) {
+            mismatches.merge(kind, 1L, Long::sum);
+        }
+        if (loggedMismatches.incrementAndGet() <= LOGGED_MISMATCHES) {
+            log.warn("{} {}: {}", kind, id, details == null ? "" : details);
+        }
+    }
+}
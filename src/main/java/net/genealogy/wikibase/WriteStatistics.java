@@ -0,0 +1,223 @@
+package net.genealogy.wikibase;
+
+import me.tongfei.progressbar.ProgressBar;
+import me.tongfei.progressbar.ProgressBarBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the latency of every statement per table, the number of rows, the latency of the commits and the number
+ * of created items. The statistics can be shared by several writers, read through JMX and logged periodically.
+ */
+public class WriteStatistics implements WriteStatisticsMXBean, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteStatistics.class);
+    private final Map<String, TableCounters> tables = new ConcurrentSkipListMap<>();
+    private final LatencyHistogram commits = new LatencyHistogram();
+    private final LongAdder items = new LongAdder();
+    private final LongAdder contentBytes = new LongAdder();
+    private final long startNanos = System.nanoTime();
+    private ScheduledExecutorService reporter;
+    private ProgressBar progressBar;
+    private ObjectName objectName;
+    private long lastReportedItems;
+    private long lastReportNanos = startNanos;
+
+    private static class TableCounters {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder rows = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+    }
+
+    /**
+     * Record an executed statement.
+     *
+     * @param rows the number of rows written by the statement
+     */
+    void recordStatement(String table, long nanos, long rows) {
+        final TableCounters counters = tables.computeIfAbsent(table, t -> new TableCounters());
+        counters.latency.record(nanos);
+        counters.rows.add(rows);
+    }
+
+    void recordBytes(String table, long bytes) {
+        tables.computeIfAbsent(table, t -> new TableCounters()).bytes.add(bytes);
+    }
+
+    void recordCommit(long nanos) {
+        commits.record(nanos);
+    }
+
+    void recordItem(int length) {
+        items.increment();
+        contentBytes.add(length);
+    }
+
+    @Override
+    public long getItems() {
+        return items.sum();
+    }
+
+    @Override
+    public double getItemsPerSecond() {
+        return items.sum() * 1e9 / Math.max(1, System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public long getContentBytes() {
+        return contentBytes.sum();
+    }
+
+    @Override
+    public long getCommits() {
+        return commits.getCount();
+    }
+
+    @Override
+    public double getCommitLatencyP50Millis() {
+        return commits.getPercentileMillis(0.5);
+    }
+
+    @Override
+    public double getCommitLatencyP99Millis() {
+        return commits.getPercentileMillis(0.99);
+    }
+
+    @Override
+    public double getCommitLatencyMaxMillis() {
+        return commits.getMaxMillis();
+    }
+
+    @Override
+    public List<TableStatistics> getTables() {
+        final List<TableStatistics> result = new ArrayList<>();
+        for (Map.Entry<String, TableCounters> entry : tables.entrySet()) {
+            final TableCounters counters = entry.getValue();
+            result.add(new TableStatistics(entry.getKey(), counters.latency.getCount(), counters.rows.sum(),
+                    counters.bytes.sum(), counters.latency.getTotalMillis(), counters.latency.getPercentileMillis(0.5),
+                    counters.latency.getPercentileMillis(0.99), counters.latency.getMaxMillis()));
+        }
+        return result;
+    }
+
+    /**
+     * Make the statistics available in JMX as <code>net.genealogy.wikibase:type=WriteStatistics,name=...</code>.
+     */
+    public void register(String name) throws JMException {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        objectName = new ObjectName("net.genealogy.wikibase:type=WriteStatistics,name=" + ObjectName.quote(name));
+        server.registerMBean(this, objectName);
+    }
+
+    /**
+     * Log the statistics periodically.
+     */
+    public synchronized void startReporting(long interval, TimeUnit unit) {
+        scheduler().scheduleAtFixedRate(this::report, interval, interval, unit);
+    }
+
+    /**
+     * Show the created items on the console. The slowest table is shown next to the bar.
+     *
+     * @param expectedItems the number of items of the load or -1 if it is not known
+     */
+    public synchronized void showProgress(String task, long expectedItems) {
+        progressBar = new ProgressBarBuilder().setTaskName(task).setInitialMax(expectedItems).setUnit(" items", 1).showSpeed().build();
+        scheduler().scheduleAtFixedRate(this::updateProgress, 1, 1, TimeUnit.SECONDS);
+    }
+
+    private ScheduledExecutorService scheduler() {
+        if (reporter == null) {
+            reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "write-statistics");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return reporter;
+    }
+
+    private synchronized void updateProgress() {
+        if (progressBar != null) {
+            progressBar.stepTo(items.sum());
+            final TableStatistics slowest = getSlowestTable();
+            if (slowest != null) {
+                progressBar.setExtraMessage(String.format("%s %.0f ms", slowest.getTable(), slowest.getTotalMillis()));
+            }
+        }
+    }
+
+    /**
+     * @return the table with the highest total latency
+     */
+    private TableStatistics getSlowestTable() {
+        TableStatistics slowest = null;
+        for (TableStatistics table : getTables()) {
+            if (slowest == null || table.getTotalMillis() > slowest.getTotalMillis()) {
+                slowest = table;
+            }
+        }
+        return slowest;
+    }
+
+    /**
+     * Log the throughput since the last report and the latencies of all tables and commits.
+     */
+    public synchronized void report() {
+        final long now = System.nanoTime();
+        final long created = items.sum();
+        final double seconds = Math.max(1, now - lastReportNanos) / 1e9;
+        log.info("{} items, {} items/s, {} items/s overall", created, (long) ((created - lastReportedItems) / seconds),
+                (long) getItemsPerSecond());
+        lastReportedItems = created;
+        lastReportNanos = now;
+        for (TableStatistics table : getTables()) {
+            log.info("  {}: {} statements, {} rows, {} bytes, total {} ms, p50 {} ms, p99 {} ms, max {} ms",
+                    table.getTable(), table.getStatements(), table.getRows(), table.getBytes(),
+                    (long) table.getTotalMillis(), table.getLatencyP50Millis(), table.getLatencyP99Millis(),
+                    table.getLatencyMaxMillis());
+        }
+        if (commits.getCount() > 0) {
+            log.info("  commit: {} commits, total {} ms, p50 {} ms, p99 {} ms, max {} ms", commits.getCount(),
+                    (long) commits.getTotalMillis(), getCommitLatencyP50Millis(), getCommitLatencyP99Millis(),
+                    getCommitLatencyMaxMillis());
+        }
+    }
+
+    /**
+     * Stop the periodic report and the progress display and remove the statistics from JMX.
+     */
+    @Override
+    public synchronized void close() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+        if (progressBar != null) {
+            progressBar.stepTo(items.sum());
+            progressBar.close();
+            progressBar = null;
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                log.warn("Could not unregister {}", objectName, e);
+            }
+            objectName = null;
+        }
+    }
+}
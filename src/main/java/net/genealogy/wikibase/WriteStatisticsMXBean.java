@@ -0,0 +1,28 @@
+package net.genealogy.wikibase;
+
+import java.util.List;
+
+/**
+ * The view of {@link WriteStatistics} in JMX.
+ */
+public interface WriteStatisticsMXBean {
+
+    long getItems();
+
+    double getItemsPerSecond();
+
+    /**
+     * @return the bytes of the JSON data of all items
+     */
+    long getContentBytes();
+
+    long getCommits();
+
+    double getCommitLatencyP50Millis();
+
+    double getCommitLatencyP99Millis();
+
+    double getCommitLatencyMaxMillis();
+
+    List<TableStatistics> getTables();
+}
@@ -0,0 +1,49 @@
+package net.genealogy.wikibase;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BloomFilterTest {
+
+    @Test
+    public void containsEveryAddedKey() {
+        final BloomFilter filter = new BloomFilter(10000);
+        final Random random = new Random(1);
+        final long[] keys = new long[10000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextLong();
+            filter.add(keys[i]);
+        }
+        for (long key : keys) {
+            assertTrue(filter.mightContain(key));
+        }
+    }
+
+    @Test
+    public void reportsFewUnknownKeys() {
+        final BloomFilter filter = new BloomFilter(10000);
+        final Random random = new Random(2);
+        for (int i = 0; i < 10000; i++) {
+            filter.add(random.nextLong());
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (filter.mightContain(random.nextLong())) {
+                falsePositives++;
+            }
+        }
+        // About 1% are expected
+        assertTrue(falsePositives + " false positives", falsePositives < 2000);
+    }
+
+    @Test
+    public void emptyFilterContainsNothing() {
+        final BloomFilter filter = new BloomFilter(0);
+        assertFalse(filter.mightContain(0));
+        assertFalse(filter.mightContain(-1));
+    }
+}
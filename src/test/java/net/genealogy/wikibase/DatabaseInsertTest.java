@@ -0,0 +1,28 @@
+package net.genealogy.wikibase;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class DatabaseInsertTest {
+
+    @Test
+    public void sha1base36OfEmptyText() {
+        // As stored by MediaWiki for an empty revision
+        assertEquals("phoiac9h4m842xq45sp7s6u21eteeq1", DatabaseInsert.sha1base36(new byte[0]));
+    }
+
+    @Test
+    public void sha1base36IsPaddedTo31Digits() {
+        for (int i = 0; i < 1000; i++) {
+            final byte[] data = Integer.toString(i).getBytes(StandardCharsets.UTF_8);
+            final String sha1 = DatabaseInsert.sha1base36(data);
+            assertEquals(sha1, 31, sha1.length());
+            assertEquals(new BigInteger(1, DigestUtils.sha1(data)), new BigInteger(sha1, 36));
+        }
+    }
+}
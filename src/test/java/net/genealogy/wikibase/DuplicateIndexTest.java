@@ -0,0 +1,82 @@
+package net.genealogy.wikibase;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Locale;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DuplicateIndexTest {
+
+    private static final String ITEM = "{\"type\":\"item\","
+            + "\"labels\":{\"de\":{\"language\":\"de\",\"value\":\"Max\"},\"en\":{\"language\":\"en\",\"value\":\"Max M\\u00fcller\"}},"
+            + "\"descriptions\":{\"en\":{\"language\":\"en\",\"value\":\"linguist\"}},"
+            + "\"claims\":{\"P214\":[{\"mainsnak\":{\"snaktype\":\"value\",\"property\":\"P214\",\"datavalue\":{\"value\":\"123\",\"type\":\"string\"}}},"
+            + "{\"mainsnak\":{\"snaktype\":\"somevalue\",\"property\":\"P214\"}}],"
+            + "\"P31\":[{\"mainsnak\":{\"snaktype\":\"value\",\"property\":\"P31\",\"datavalue\":{\"value\":{\"entity-type\":\"item\",\"id\":\"Q5\"}}}}],"
+            + "\"P569\":[{\"mainsnak\":{\"snaktype\":\"value\",\"property\":\"P569\",\"datavalue\":{\"value\":\"1823\"}}}]}}";
+
+    private final DuplicateIndex index = new DuplicateIndex(Locale.ENGLISH, 100, "P214", "P31");
+
+    @Test
+    public void keysOfLabelAndKeyProperties() {
+        assertEquals(3, index.keys(ITEM).length);
+        // Whitespace, the order of the members and escapes do not matter
+        final String same = "{ \"claims\" : { \"P31\" : [ { \"mainsnak\" : { \"datavalue\" : { \"value\" : { \"id\" : \"Q5\" } } } } ],"
+                + " \"P214\" : [ { \"mainsnak\" : { \"datavalue\" : { \"value\" : \"123\" } } } ] },"
+                + " \"descriptions\" : { \"en\" : { \"value\" : \"linguist\" } }, \"labels\" : { \"en\" : { \"value\" : \"Max Müller\" } } }";
+        final long[] keys = index.keys(same);
+        assertEquals(3, keys.length);
+        for (long key : index.keys(ITEM)) {
+            assertTrue(contains(keys, key));
+        }
+    }
+
+    @Test
+    public void keysWithoutLabel() {
+        assertEquals(0, index.keys("{\"labels\":[],\"claims\":[]}").length);
+        assertEquals(1, index.keys("{\"labels\":{\"de\":{\"value\":\"Max\"}},\"claims\":{\"P214\":[{\"mainsnak\":{\"datavalue\":{\"value\":\"1\"}}}]}}").length);
+    }
+
+    @Test
+    public void descriptionIsPartOfTheLabelKey() {
+        final long[] keys = index.keys("{\"labels\":{\"en\":{\"value\":\"Max M\\u00fcller\"}}}");
+        final long[] withDescription = index.keys("{\"labels\":{\"en\":{\"value\":\"Max M\\u00fcller\"}},\"descriptions\":{\"en\":{\"value\":\"linguist\"}}}");
+        assertFalse(keys[0] == withDescription[0]);
+    }
+
+    @Test
+    public void findsItemsByAnyKey() {
+        index.put(index.keys(ITEM), 42);
+        assertEquals(42, index.find(index.keys("{\"claims\":{\"P214\":[{\"mainsnak\":{\"datavalue\":{\"value\":\"123\"}}}]}}")));
+        assertEquals(0, index.find(index.keys("{\"claims\":{\"P214\":[{\"mainsnak\":{\"datavalue\":{\"value\":\"124\"}}}]}}")));
+        assertTrue(index.matches(index.keys(ITEM), ITEM));
+        assertFalse(index.matches(index.keys("{\"labels\":{\"en\":{\"value\":\"other\"}}}"), ITEM));
+        assertEquals(1, index.getDuplicates());
+        assertEquals(1, index.getFalsePositives());
+    }
+
+    @Test
+    public void keepsUncommittedKeysUntilReleased() {
+        final long[] keys = index.keys(ITEM);
+        index.putUncommitted(keys, 42);
+        assertArrayEquals(keys, index.getUncommittedKeys(42));
+        index.release(Collections.singletonList(42));
+        assertNull(index.getUncommittedKeys(42));
+        assertEquals(42, index.find(keys));
+    }
+
+    private static boolean contains(long[] keys, long key) {
+        for (long k : keys) {
+            if (k == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
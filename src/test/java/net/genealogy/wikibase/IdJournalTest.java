@@ -0,0 +1,78 @@
+package net.genealogy.wikibase;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IdJournalTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final IdRanges first = new IdRanges(1, 10, 100, 109, 200, 209, 300, 300, 400, 409, 1000);
+    private final IdRanges second = new IdRanges(11, 10, 110, 112, 1, 0, 1, 0, 410, 412, 0);
+
+    private void append(File file, String text) throws IOException {
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    }
+
+    @Test
+    public void readsTheRecordedRanges() throws IOException {
+        final File file = folder.newFile();
+        try (IdJournal journal = new IdJournal(file)) {
+            journal.record(Arrays.asList(first, second));
+        }
+        // A journal is continued
+        try (IdJournal journal = new IdJournal(file)) {
+            journal.record(Collections.singletonList(first));
+        }
+        assertEquals(Arrays.asList(first, second, first), IdJournal.read(file));
+    }
+
+    @Test
+    public void readsAnEmptyJournal() throws IOException {
+        assertTrue(IdJournal.read(folder.newFile()).isEmpty());
+    }
+
+    @Test
+    public void ignoresAnIncompleteLastLine() throws IOException {
+        final File file = folder.newFile();
+        try (IdJournal journal = new IdJournal(file)) {
+            journal.record(Collections.singletonList(first));
+        }
+        append(file, "11 20 110");
+        assertEquals(Collections.singletonList(first), IdJournal.read(file));
+    }
+
+    @Test
+    public void ignoresALastLineCutWithinItsLastNumber() throws IOException {
+        final File file = folder.newFile();
+        try (IdJournal journal = new IdJournal(file)) {
+            journal.record(Collections.singletonList(first));
+        }
+        // All fields are there, but the last Q number of the block might have been 1000
+        append(file, "11 20 110 119 210 219 301 301 410 419 10");
+        assertEquals(Collections.singletonList(first), IdJournal.read(file));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsAnInvalidLineBeforeTheEnd() throws IOException {
+        final File file = folder.newFile();
+        append(file, "1 2 3\n");
+        try (IdJournal journal = new IdJournal(file)) {
+            journal.record(Collections.singletonList(first));
+        }
+        IdJournal.read(file);
+    }
+}
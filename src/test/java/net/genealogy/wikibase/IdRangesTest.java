@@ -0,0 +1,51 @@
+package net.genealogy.wikibase;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IdRangesTest {
+
+    private static IdRanges qNumbers(long first, long last) {
+        return new IdRanges(first, last, 1, 0, 1, 0, 1, 0, 1, 0, 0);
+    }
+
+    @Test
+    public void mergesAdjacentAndOverlappingRanges() {
+        final List<long[]> merged = IdRanges.merge(Arrays.asList(qNumbers(20, 29), qNumbers(1, 10), qNumbers(11, 12),
+                qNumbers(25, 40), qNumbers(42, 42)), IdRanges::getFirstQNumber, IdRanges::getLastQNumber);
+        assertEquals(3, merged.size());
+        assertArrayEquals(new long[]{1, 12}, merged.get(0));
+        assertArrayEquals(new long[]{20, 40}, merged.get(1));
+        assertArrayEquals(new long[]{42, 42}, merged.get(2));
+    }
+
+    @Test
+    public void keepsContainedRangesWithin() {
+        final List<long[]> merged = IdRanges.merge(Arrays.asList(qNumbers(1, 100), qNumbers(5, 10)),
+                IdRanges::getFirstQNumber, IdRanges::getLastQNumber);
+        assertEquals(1, merged.size());
+        assertArrayEquals(new long[]{1, 100}, merged.get(0));
+    }
+
+    @Test
+    public void skipsEmptyRanges() {
+        assertTrue(IdRanges.merge(Arrays.asList(qNumbers(5, 4), qNumbers(1, 0)),
+                IdRanges::getFirstQNumber, IdRanges::getLastQNumber).isEmpty());
+        // The text ids of these entries are all empty
+        assertTrue(IdRanges.merge(Arrays.asList(qNumbers(1, 10)), IdRanges::getFirstTextId, IdRanges::getLastTextId).isEmpty());
+    }
+
+    @Test
+    public void isEmptyOnlyWithoutAnyIds() {
+        assertTrue(qNumbers(1, 0).isEmpty());
+        assertFalse(qNumbers(1, 1).isEmpty());
+        assertFalse(new IdRanges(1, 0, 1, 0, 1, 0, 1, 0, 7, 7, 0).isEmpty());
+    }
+}
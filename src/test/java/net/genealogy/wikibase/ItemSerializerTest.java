@@ -0,0 +1,83 @@
+package net.genealogy.wikibase;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ItemSerializerTest {
+
+    private final ItemSerializer serializer = new ItemSerializer();
+
+    @Test
+    public void addsItemIdAndDropsWhitespace() {
+        final String json = serializer.serialize("{ \"type\" : \"item\",\n \"labels\" : { } }", "Q7");
+        assertEquals("{\"id\":\"Q7\",\"type\":\"item\",\"labels\":{}}", json);
+    }
+
+    @Test
+    public void keepsExistingItemId() {
+        final String json = serializer.serialize("{\"type\":\"item\",\"id\":\"Q1\"}", "Q7");
+        assertEquals("{\"type\":\"item\",\"id\":\"Q1\"}", json);
+    }
+
+    @Test
+    public void replacesStatementIds() {
+        final String json = serializer.serialize("{\"claims\":{\"P31\":[{\"id\":\"old\",\"rank\":\"normal\"},{\"rank\":\"preferred\"}]}}", "Q7");
+        final JSONObject item = new JSONObject(json);
+        final String first = item.getJSONObject("claims").getJSONArray("P31").getJSONObject(0).getString("id");
+        final String second = item.getJSONObject("claims").getJSONArray("P31").getJSONObject(1).getString("id");
+        assertTrue(first, first.matches("Q7\\$[0-9a-f]{8}-[0-9a-f]{4}-4[0-9a-f]{3}-[89ab][0-9a-f]{3}-[0-9a-f]{12}"));
+        assertFalse(first.equals(second));
+        assertEquals("normal", item.getJSONObject("claims").getJSONArray("P31").getJSONObject(0).getString("rank"));
+    }
+
+    @Test
+    public void keepsStatementIdsOfEdits() {
+        final String json = serializer.serializeEdit("{\"id\":\"Q7\",\"claims\":{\"P31\":[{\"id\":\"Q7$x\"},{}]}}", "Q7");
+        final JSONObject item = new JSONObject(json);
+        assertEquals("Q7$x", item.getJSONObject("claims").getJSONArray("P31").getJSONObject(0).getString("id"));
+        assertTrue(item.getJSONObject("claims").getJSONArray("P31").getJSONObject(1).getString("id").startsWith("Q7$"));
+    }
+
+    @Test
+    public void copiesStringsVerbatim() {
+        final String json = serializer.serialize("{\"labels\":{\"en\":{\"language\":\"en\",\"value\":\"a \\\"b\\\" \\u00e9\"}}}", "Q7");
+        assertEquals("{\"id\":\"Q7\",\"labels\":{\"en\":{\"language\":\"en\",\"value\":\"a \\\"b\\\" \\u00e9\"}}}", json);
+    }
+
+    @Test
+    public void collectsTermsAndSitelinks() {
+        serializer.setCollectTerms(true);
+        serializer.serialize("{\"labels\":{\"en\":{\"language\":\"en\",\"value\":\"caf\\u00e9\"}},"
+                + "\"aliases\":{\"de\":[{\"language\":\"de\",\"value\":\"a\"},{\"language\":\"de\",\"value\":\"b\"}]},"
+                + "\"sitelinks\":{\"dewiki\":{\"site\":\"dewiki\",\"title\":\"Caf\\u00e9\"}}}", "Q7");
+        assertEquals(Arrays.asList("label", "en", "caf\u00e9", "alias", "de", "a", "alias", "de", "b"), serializer.getTerms());
+        assertEquals(Arrays.asList("dewiki", "Caf\u00e9"), serializer.getSitelinks());
+    }
+
+    @Test
+    public void removesTopLevelKeys() {
+        final String json = serializer.removeKeys("{\"id\":\"Q1\",\"lastrevid\":5,\"labels\":{\"lastrevid\":1}}", new String[]{"id", "lastrevid"});
+        assertEquals("{\"labels\":{\"lastrevid\":1}}", json);
+    }
+
+    @Test
+    public void findsTopLevelString() {
+        final String json = "{\"claims\":{\"datatype\":\"nested\"},\"datatype\":\"external-id\",\"size\":3}";
+        assertEquals("external-id", serializer.topLevelString(json, "datatype"));
+        assertNull(serializer.topLevelString(json, "size"));
+        assertNull(serializer.topLevelString(json, "missing"));
+    }
+
+    @Test(expected = JSONException.class)
+    public void rejectsTruncatedJson() {
+        serializer.serialize("{\"labels\":{\"en\":", "Q7");
+    }
+}
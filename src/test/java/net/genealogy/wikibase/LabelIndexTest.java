@@ -0,0 +1,50 @@
+package net.genealogy.wikibase;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LabelIndexTest {
+
+    private final LabelIndex index = new LabelIndex(Locale.ENGLISH);
+
+    @Test
+    public void keepsTheLowestNumber() {
+        index.put('Q', "human", 12);
+        index.put('Q', "human", 5);
+        index.put('Q', "human", 9);
+        assertEquals(5, index.find('Q', "human"));
+    }
+
+    @Test
+    public void separatesPropertiesAndItems() {
+        index.put('P', "instance of", 31);
+        index.put('Q', "instance of", 100);
+        assertEquals("P31", index.resolve('P', "instance of"));
+        assertEquals("Q100", index.resolve('Q', "instance of"));
+        assertEquals(0, index.find('P', "Instance of"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownLabel() {
+        index.resolve('Q', "unknown");
+    }
+
+    @Test
+    public void resolvesReferencesWhileSerializing() {
+        index.put('P', "instance of", 31);
+        index.put('Q', "human", 5);
+        final ItemSerializer serializer = new ItemSerializer();
+        serializer.setLabelIndex(index);
+        final String json = serializer.serialize("{\"claims\":{\"P:instance of\":[{\"mainsnak\":{\"property\":\"P:instance of\","
+                + "\"datavalue\":{\"value\":{\"entity-type\":\"item\",\"id\":\"Q:human\"}}}}]}}", "Q7");
+        assertEquals(-1, json.indexOf("P:"));
+        assertEquals(-1, json.indexOf("Q:"));
+        assertTrue(json.contains("\"P31\":[{\"id\":\"Q7$"));
+        assertTrue(json.contains("\"property\":\"P31\""));
+        assertTrue(json.contains("\"id\":\"Q5\""));
+    }
+}
@@ -0,0 +1,44 @@
+package net.genealogy.wikibase;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LongIntHashMapTest {
+
+    @Test
+    public void putAndGet() {
+        final LongIntHashMap map = new LongIntHashMap(4);
+        assertEquals(0, map.put(42, 1));
+        assertEquals(1, map.put(42, 2));
+        assertEquals(2, map.get(42));
+        assertEquals(0, map.get(43));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void storesTheFreeKey() {
+        final LongIntHashMap map = new LongIntHashMap(4);
+        map.put(0, 5);
+        assertEquals(5, map.get(0));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void keepsEntriesWhenGrowing() {
+        final LongIntHashMap map = new LongIntHashMap(16);
+        for (int i = 1; i <= 100000; i++) {
+            map.put(i * 31L << 20, i);
+        }
+        assertEquals(100000, map.size());
+        for (int i = 1; i <= 100000; i++) {
+            assertEquals(i, map.get(i * 31L << 20));
+        }
+        assertEquals(0, map.get(-1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroValue() {
+        new LongIntHashMap(4).put(1, 0);
+    }
+}
@@ -0,0 +1,38 @@
+package net.genealogy.wikibase;
+
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MediaWikiTimestampTest {
+
+    @Test
+    public void formatsTheCurrentTime() {
+        final LocalDateTime before = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS);
+        final String timestamp = new MediaWikiTimestamp().now();
+        final LocalDateTime after = LocalDateTime.now();
+        assertTrue(timestamp, timestamp.matches("\\d{14}"));
+        final LocalDateTime parsed = LocalDateTime.parse(timestamp, DateTimeFormatter.ofPattern("yyyyMMddHHmmss"));
+        assertTrue(timestamp, !parsed.isBefore(before) && !parsed.isAfter(after));
+    }
+
+    @Test
+    public void reusesTheValueWithinASecond() {
+        final MediaWikiTimestamp timestamps = new MediaWikiTimestamp();
+        // Retry if the second ends between the two calls
+        for (int attempt = 0; attempt < 10; attempt++) {
+            final long start = System.currentTimeMillis() / 1000;
+            final String timestamp = timestamps.now();
+            final String again = timestamps.now();
+            if (System.currentTimeMillis() / 1000 == start) {
+                assertSame(timestamp, again);
+                return;
+            }
+        }
+    }
+}
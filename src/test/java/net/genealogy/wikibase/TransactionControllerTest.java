@@ -0,0 +1,71 @@
+package net.genealogy.wikibase;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TransactionControllerTest {
+
+    /**
+     * The steps are decided without a writer, it is only needed to commit.
+     */
+    private final TransactionController controller = new TransactionController(null, 100, 10);
+
+    private void assertSetting(int itemsPerTransaction, int batchSize) {
+        assertEquals("items per transaction", itemsPerTransaction, controller.getItemsPerTransaction());
+        assertEquals("batch size", batchSize, controller.getBatchSize());
+    }
+
+    @Test
+    public void repeatsAStepThatHelps() {
+        controller.adapt(1000, 0);
+        assertSetting(200, 10);
+        controller.adapt(2000, 0);
+        assertSetting(400, 10);
+    }
+
+    @Test
+    public void goesBackAndTriesTheOtherSetting() {
+        controller.adapt(1000, 0);
+        controller.adapt(2000, 0);
+        // 400 items per transaction are slower than 200, so the batch size is doubled from 200 instead
+        controller.adapt(1500, 0);
+        assertSetting(200, 20);
+        // Larger batches do not help either, so smaller transactions are tried next
+        controller.adapt(1900, 0);
+        assertSetting(100, 10);
+    }
+
+    @Test
+    public void comparesWithTheAcceptedSettingOnly() {
+        controller.adapt(1000, 0);
+        controller.adapt(2000, 0);
+        controller.adapt(1500, 0);
+        // Faster than the rejected step, but not faster than the accepted 2000 items/s
+        controller.adapt(1800, 0);
+        assertSetting(100, 10);
+    }
+
+    @Test
+    public void shrinksTransactionsWithSlowCommits() {
+        controller.adapt(1000, 0);
+        controller.adapt(2000, 6000);
+        assertSetting(100, 10);
+        // The smaller transactions are the new baseline, even if they are slower
+        controller.adapt(500, 0);
+        assertSetting(50, 10);
+    }
+
+    @Test
+    public void staysWithinTheLimits() {
+        controller.setMaxItemsPerTransaction(150);
+        controller.adapt(1000, 0);
+        assertSetting(150, 10);
+        // 150, 75, 37, 18, 9, 4, 2, 1 and not below
+        for (int i = 0; i < 8; i++) {
+            controller.adapt(500, 6000);
+        }
+        // The batch never gets larger than the transaction
+        assertSetting(1, 1);
+    }
+}
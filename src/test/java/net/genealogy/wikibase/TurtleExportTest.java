@@ -0,0 +1,50 @@
+package net.genealogy.wikibase;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TurtleExportTest {
+
+    @Test
+    public void xsdDateTimeOfDay() {
+        assertEquals("1850-03-15T00:00:00Z", TurtleExport.xsdDateTime("+1850-03-15T00:00:00Z", 11));
+    }
+
+    @Test
+    public void xsdDateTimeReplacesUnknownMonthAndDay() {
+        assertEquals("1850-01-01T00:00:00Z", TurtleExport.xsdDateTime("+1850-00-00T00:00:00Z", 9));
+        assertEquals("1850-05-01T00:00:00Z", TurtleExport.xsdDateTime("+1850-05-00T00:00:00Z", 10));
+        assertEquals("1850-01-01T00:00:00Z", TurtleExport.xsdDateTime("+1850-05-12T00:00:00Z", 9));
+    }
+
+    @Test
+    public void xsdDateTimeBeforeTheCommonEra() {
+        // 44 BCE is the year -43 in XSD 1.1
+        assertEquals("-0043-03-15T00:00:00Z", TurtleExport.xsdDateTime("-0044-03-15T00:00:00Z", 11));
+        assertEquals("0000-01-01T00:00:00Z", TurtleExport.xsdDateTime("-0001-00-00T00:00:00Z", 9));
+    }
+
+    @Test
+    public void xsdDateTimeOfLargeYears() {
+        assertEquals("-13798000000-01-01T00:00:00Z", TurtleExport.xsdDateTime("-13798000001-00-00T00:00:00Z", 3));
+        assertEquals("12345-01-01T00:00:00Z", TurtleExport.xsdDateTime("+12345-00-00T00:00:00Z", 9));
+    }
+
+    @Test
+    public void rendersLabelsAndStatements() {
+        final TurtleExport export = new TurtleExport(new File("."), "http://wikibase.svc", 100);
+        final String turtle = export.render("Q7", "{\"type\":\"item\",\"id\":\"Q7\","
+                + "\"labels\":{\"en\":{\"language\":\"en\",\"value\":\"a \\\"b\\\"\"}},"
+                + "\"claims\":{\"P31\":[{\"id\":\"Q7$1\",\"rank\":\"normal\",\"mainsnak\":{\"snaktype\":\"value\",\"property\":\"P31\","
+                + "\"datatype\":\"wikibase-item\",\"datavalue\":{\"value\":{\"entity-type\":\"item\",\"id\":\"Q5\"},\"type\":\"wikibase-entityid\"}}}]}}",
+                12, "20200514123000");
+        assertTrue(turtle, turtle.contains("rdfs:label \"a \\\"b\\\"\"@en ;"));
+        assertTrue(turtle, turtle.contains("wdt:P31 wd:Q5 ;"));
+        assertTrue(turtle, turtle.contains("wds:Q7-1 a wikibase:Statement, wikibase:BestRank ;"));
+        assertTrue(turtle, turtle.contains("schema:dateModified \"2020-05-14T12:30:00Z\"^^xsd:dateTime ;"));
+    }
+}